@@ -0,0 +1,210 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes the files of a commit to a tar or zip archive straight from the
+ * object store, without touching the working directory. Tar entries are
+ * copied with channel transfers, so their contents need not pass through
+ * the Java heap; zip entries are deflated at the fastest level.
+ *
+ * @author StrangeMP
+ */
+class Archive {
+    private static final int TAR_BLOCK = 512;
+    private static final int BUFFER_SIZE = 1 << 20;
+    /** Largest entry size the 11 octal digits of a tar header can hold. */
+    private static final long MAX_TAR_SIZE = 077777777777L;
+
+    /**
+     * Writes BLOBS, in order, as a tar archive to OUT, each entry named by
+     * its path in the working directory and with the modification time
+     * MTIME in milliseconds.
+     */
+    static void writeTar(File out, List<Blob> blobs, long mtime) throws IOException {
+        replace(out, tmp -> {
+            try (FileChannel archive = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                for (Blob b : blobs) {
+                    File contents = b.contents();
+                    long size = contents.length();
+                    writeTarHeader(archive, b.relativePath(), size, mtime / 1000);
+                    try (FileChannel in = FileChannel.open(contents.toPath())) {
+                        for (long done = 0; done < size; ) {
+                            done += in.transferTo(done, size - done, archive);
+                        }
+                    }
+                    writeFully(archive, ByteBuffer.allocate(padding(size)));
+                }
+                // The end of the archive is marked by two zero blocks.
+                writeFully(archive, ByteBuffer.allocate(2 * TAR_BLOCK));
+            }
+        });
+    }
+
+    /**
+     * Writes the header of a regular file NAME of SIZE bytes last modified
+     * at MTIME seconds. A NAME too long for the ustar name and prefix fields
+     * is given in a pax extended header before it.
+     */
+    private static void writeTarHeader(FileChannel archive, String name, long size, long mtime)
+            throws IOException {
+        if (size > MAX_TAR_SIZE) {
+            throw Utils.error("File too large for a tar archive: %s", name);
+        }
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        int split = prefixEnd(nameBytes);
+        if (split < 0) {
+            byte[] record = paxRecord("path", name);
+            writeFully(archive, tarHeader(Arrays.copyOf(nameBytes, 100), -1, 'x',
+                    record.length, mtime));
+            writeFully(archive, ByteBuffer.wrap(record));
+            writeFully(archive, ByteBuffer.allocate(padding(record.length)));
+            nameBytes = Arrays.copyOfRange(nameBytes, nameBytes.length - 100, nameBytes.length);
+        }
+        writeFully(archive, tarHeader(nameBytes, split, '0', size, mtime));
+    }
+
+    /**
+     * @return -1 if NAME fits neither the 100-byte name field nor, split at
+     * a /, the 155-byte prefix field and the name field; otherwise the index
+     * of the / ending the prefix, or 0 if no prefix is needed.
+     */
+    private static int prefixEnd(byte[] name) {
+        if (name.length <= 100) {
+            return 0;
+        }
+        for (int i = name.length - 101; i < name.length - 1 && i <= 155; i += 1) {
+            if (i > 0 && name[i] == '/') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the pax extended header record KEY=VALUE, which starts with
+     * its own length in bytes.
+     */
+    private static byte[] paxRecord(String key, String value) {
+        int length = (" " + key + "=" + value + "\n").getBytes(StandardCharsets.UTF_8).length;
+        int total = length + Integer.toString(length).length();
+        if (Integer.toString(total).length() != Integer.toString(length).length()) {
+            total += 1;
+        }
+        return (total + " " + key + "=" + value + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the ustar header of an entry of type TYPE and SIZE bytes last
+     * modified at MTIME seconds, named by NAME, whose bytes before index
+     * SPLIT, if positive, go in the prefix field.
+     */
+    private static ByteBuffer tarHeader(byte[] name, int split, char type, long size, long mtime) {
+        byte[] header = new byte[TAR_BLOCK];
+        if (split > 0) {
+            System.arraycopy(name, 0, header, 345, split);
+            System.arraycopy(name, split + 1, header, 0, name.length - split - 1);
+        } else {
+            System.arraycopy(name, 0, header, 0, name.length);
+        }
+        octal(header, 100, 8, 0644);
+        octal(header, 108, 8, 0);
+        octal(header, 116, 8, 0);
+        octal(header, 124, 12, size);
+        octal(header, 136, 12, mtime);
+        header[156] = (byte) type;
+        System.arraycopy("ustar\0".getBytes(StandardCharsets.US_ASCII), 0, header, 257, 6);
+        header[263] = '0';
+        header[264] = '0';
+        // The checksum is computed with its own field read as spaces.
+        Arrays.fill(header, 148, 156, (byte) ' ');
+        long sum = 0;
+        for (byte x : header) {
+            sum += x & 0xff;
+        }
+        octal(header, 148, 7, sum);
+        return ByteBuffer.wrap(header);
+    }
+
+    /**
+     * @return the number of zero bytes filling out the last block of an
+     * entry of SIZE bytes.
+     */
+    private static int padding(long size) {
+        return (int) ((TAR_BLOCK - size % TAR_BLOCK) % TAR_BLOCK);
+    }
+
+    /**
+     * Writes VALUE into HEADER at OFFSET as a zero-padded octal number of
+     * LENGTH - 1 digits followed by a NUL.
+     */
+    private static void octal(byte[] header, int offset, int length, long value) {
+        String digits = Long.toOctalString(value);
+        digits = "0".repeat(length - 1 - digits.length()) + digits;
+        System.arraycopy(digits.getBytes(StandardCharsets.US_ASCII), 0, header, offset, length - 1);
+        header[offset + length - 1] = 0;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            channel.write(buf);
+        }
+    }
+
+    /**
+     * Writes BLOBS, in order, as a zip archive to OUT, each entry named by
+     * its path in the working directory and with the modification time
+     * MTIME in milliseconds.
+     */
+    static void writeZip(File out, List<Blob> blobs, long mtime) throws IOException {
+        replace(out, tmp -> {
+            try (OutputStream file = new BufferedOutputStream(Files.newOutputStream(tmp.toPath()),
+                    BUFFER_SIZE);
+                 ZipOutputStream zip = new ZipOutputStream(file, StandardCharsets.UTF_8)) {
+                zip.setLevel(Deflater.BEST_SPEED);
+                for (Blob b : blobs) {
+                    ZipEntry entry = new ZipEntry(b.relativePath());
+                    entry.setLastModifiedTime(FileTime.fromMillis(mtime));
+                    zip.putNextEntry(entry);
+                    Files.copy(b.contents().toPath(), zip);
+                    zip.closeEntry();
+                }
+            }
+        });
+    }
+
+    /** Writes an archive to the file it is given. */
+    private interface Writer {
+        void write(File f) throws IOException;
+    }
+
+    /**
+     * Has WRITER write a temporary file next to OUT and renames it over OUT
+     * once complete, so a failure leaves no partial archive behind.
+     */
+    private static void replace(File out, Writer writer) throws IOException {
+        File tmp = new File(out.getPath() + ".tmp");
+        try {
+            writer.write(tmp);
+            Files.move(tmp.toPath(), out.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            tmp.delete();
+        }
+    }
+}
@@ -0,0 +1,644 @@
+package gitlet;
+
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+/**
+ * BLAKE3 with 32-byte output, in pure Java, as a MessageDigest so that it can
+ * be used wherever SHA-1 or SHA-256 are. Input is split into 1 KiB chunks
+ * whose chaining values are merged into a binary tree as chunks complete, so
+ * memory use stays constant however long the input is.
+ *
+ * @author StrangeMP
+ */
+final class Blake3 extends MessageDigest {
+    private static final int[] IV = {
+        0x6A09E667, 0xBB67AE85, 0x3C6EF372, 0xA54FF53A,
+        0x510E527F, 0x9B05688C, 0x1F83D9AB, 0x5BE0CD19
+    };
+    private static final int BLOCK_LEN = 64;
+    private static final int CHUNK_LEN = 1024;
+    private static final int CHUNK_START = 1;
+    private static final int CHUNK_END = 2;
+    private static final int PARENT = 4;
+    private static final int ROOT = 8;
+
+    /** Chaining value of the current chunk. */
+    private final int[] cv = new int[8];
+    private final byte[] block = new byte[BLOCK_LEN];
+    private final int[] words = new int[16];
+    private final int[] state = new int[16];
+    /** Chaining values of completed subtrees, at most one per level. */
+    private final int[][] stack = new int[54][8];
+    private int stackSize;
+    private long chunkCounter;
+    private int blockLen;
+    private int blocksCompressed;
+
+    Blake3() {
+        super("BLAKE3");
+        engineReset();
+    }
+
+    @Override
+    protected int engineGetDigestLength() {
+        return 32;
+    }
+
+    @Override
+    protected void engineReset() {
+        System.arraycopy(IV, 0, cv, 0, 8);
+        stackSize = 0;
+        chunkCounter = 0;
+        blockLen = 0;
+        blocksCompressed = 0;
+    }
+
+    @Override
+    protected void engineUpdate(byte input) {
+        engineUpdate(new byte[]{input}, 0, 1);
+    }
+
+    @Override
+    protected void engineUpdate(byte[] input, int offset, int len) {
+        while (len > 0) {
+            if (blockLen == BLOCK_LEN) {
+                if (blocksCompressed == CHUNK_LEN / BLOCK_LEN - 1) {
+                    finishChunk();
+                } else {
+                    loadWords(block);
+                    compress(cv, words, chunkCounter, BLOCK_LEN, chunkFlags());
+                    System.arraycopy(state, 0, cv, 0, 8);
+                    blocksCompressed++;
+                    blockLen = 0;
+                }
+            }
+            int take = Math.min(BLOCK_LEN - blockLen, len);
+            System.arraycopy(input, offset, block, blockLen, take);
+            blockLen += take;
+            offset += take;
+            len -= take;
+        }
+    }
+
+    /**
+     * Compresses the full last block of the current chunk, which more input
+     * follows, and pushes the chunk's chaining value onto the tree.
+     */
+    private void finishChunk() {
+        loadWords(block);
+        compress(cv, words, chunkCounter, BLOCK_LEN, chunkFlags() | CHUNK_END);
+        int[] chunkCv = new int[8];
+        System.arraycopy(state, 0, chunkCv, 0, 8);
+        long totalChunks = ++chunkCounter;
+        // Each trailing zero bit of the chunk count completes a subtree.
+        while ((totalChunks & 1) == 0) {
+            parentWords(stack[--stackSize], chunkCv);
+            compress(IV, words, 0, BLOCK_LEN, PARENT);
+            System.arraycopy(state, 0, chunkCv, 0, 8);
+            totalChunks >>= 1;
+        }
+        System.arraycopy(chunkCv, 0, stack[stackSize++], 0, 8);
+        System.arraycopy(IV, 0, cv, 0, 8);
+        blocksCompressed = 0;
+        blockLen = 0;
+    }
+
+    @Override
+    protected byte[] engineDigest() {
+        // The last block of the last chunk, merged up the right edge of the tree.
+        Arrays.fill(block, blockLen, BLOCK_LEN, (byte) 0);
+        loadWords(block);
+        int[] inputCv = cv.clone();
+        int[] inputWords = words.clone();
+        long counter = chunkCounter;
+        int len = blockLen;
+        int flags = chunkFlags() | CHUNK_END;
+        for (int i = stackSize - 1; i >= 0; i--) {
+            compress(inputCv, inputWords, counter, len, flags);
+            int[] right = new int[8];
+            System.arraycopy(state, 0, right, 0, 8);
+            parentWords(stack[i], right);
+            inputCv = IV;
+            inputWords = words.clone();
+            counter = 0;
+            len = BLOCK_LEN;
+            flags = PARENT;
+        }
+        compress(inputCv, inputWords, counter, len, flags | ROOT);
+        byte[] out = new byte[32];
+        for (int i = 0; i < 8; i++) {
+            int w = state[i];
+            out[4 * i] = (byte) w;
+            out[4 * i + 1] = (byte) (w >>> 8);
+            out[4 * i + 2] = (byte) (w >>> 16);
+            out[4 * i + 3] = (byte) (w >>> 24);
+        }
+        engineReset();
+        return out;
+    }
+
+    private int chunkFlags() {
+        return blocksCompressed == 0 ? CHUNK_START : 0;
+    }
+
+    private void loadWords(byte[] b) {
+        for (int i = 0; i < 16; i++) {
+            words[i] = (b[4 * i] & 0xff) | (b[4 * i + 1] & 0xff) << 8
+                    | (b[4 * i + 2] & 0xff) << 16 | (b[4 * i + 3] & 0xff) << 24;
+        }
+    }
+
+    private void parentWords(int[] left, int[] right) {
+        System.arraycopy(left, 0, words, 0, 8);
+        System.arraycopy(right, 0, words, 8, 8);
+    }
+
+    /**
+     * Runs the compression function on the chaining value CV and the message
+     * M, leaving the full 16-word result in STATE.
+     */
+    private void compress(int[] cv, int[] m, long counter, int len, int flags) {
+        int s0 = cv[0], s1 = cv[1], s2 = cv[2], s3 = cv[3];
+        int s4 = cv[4], s5 = cv[5], s6 = cv[6], s7 = cv[7];
+        int s8 = IV[0], s9 = IV[1], s10 = IV[2], s11 = IV[3];
+        int s12 = (int) counter, s13 = (int) (counter >>> 32), s14 = len, s15 = flags;
+        int m0 = m[0], m1 = m[1], m2 = m[2], m3 = m[3];
+        int m4 = m[4], m5 = m[5], m6 = m[6], m7 = m[7];
+        int m8 = m[8], m9 = m[9], m10 = m[10], m11 = m[11];
+        int m12 = m[12], m13 = m[13], m14 = m[14], m15 = m[15];
+        // Seven rounds, each mixing the columns and then the diagonals of the
+        // state, with the message words permuted between rounds.
+        // Round 1.
+        s0 += s4 + m0;
+        s12 = Integer.rotateRight(s12 ^ s0, 16);
+        s8 += s12;
+        s4 = Integer.rotateRight(s4 ^ s8, 12);
+        s0 += s4 + m1;
+        s12 = Integer.rotateRight(s12 ^ s0, 8);
+        s8 += s12;
+        s4 = Integer.rotateRight(s4 ^ s8, 7);
+        s1 += s5 + m2;
+        s13 = Integer.rotateRight(s13 ^ s1, 16);
+        s9 += s13;
+        s5 = Integer.rotateRight(s5 ^ s9, 12);
+        s1 += s5 + m3;
+        s13 = Integer.rotateRight(s13 ^ s1, 8);
+        s9 += s13;
+        s5 = Integer.rotateRight(s5 ^ s9, 7);
+        s2 += s6 + m4;
+        s14 = Integer.rotateRight(s14 ^ s2, 16);
+        s10 += s14;
+        s6 = Integer.rotateRight(s6 ^ s10, 12);
+        s2 += s6 + m5;
+        s14 = Integer.rotateRight(s14 ^ s2, 8);
+        s10 += s14;
+        s6 = Integer.rotateRight(s6 ^ s10, 7);
+        s3 += s7 + m6;
+        s15 = Integer.rotateRight(s15 ^ s3, 16);
+        s11 += s15;
+        s7 = Integer.rotateRight(s7 ^ s11, 12);
+        s3 += s7 + m7;
+        s15 = Integer.rotateRight(s15 ^ s3, 8);
+        s11 += s15;
+        s7 = Integer.rotateRight(s7 ^ s11, 7);
+        s0 += s5 + m8;
+        s15 = Integer.rotateRight(s15 ^ s0, 16);
+        s10 += s15;
+        s5 = Integer.rotateRight(s5 ^ s10, 12);
+        s0 += s5 + m9;
+        s15 = Integer.rotateRight(s15 ^ s0, 8);
+        s10 += s15;
+        s5 = Integer.rotateRight(s5 ^ s10, 7);
+        s1 += s6 + m10;
+        s12 = Integer.rotateRight(s12 ^ s1, 16);
+        s11 += s12;
+        s6 = Integer.rotateRight(s6 ^ s11, 12);
+        s1 += s6 + m11;
+        s12 = Integer.rotateRight(s12 ^ s1, 8);
+        s11 += s12;
+        s6 = Integer.rotateRight(s6 ^ s11, 7);
+        s2 += s7 + m12;
+        s13 = Integer.rotateRight(s13 ^ s2, 16);
+        s8 += s13;
+        s7 = Integer.rotateRight(s7 ^ s8, 12);
+        s2 += s7 + m13;
+        s13 = Integer.rotateRight(s13 ^ s2, 8);
+        s8 += s13;
+        s7 = Integer.rotateRight(s7 ^ s8, 7);
+        s3 += s4 + m14;
+        s14 = Integer.rotateRight(s14 ^ s3, 16);
+        s9 += s14;
+        s4 = Integer.rotateRight(s4 ^ s9, 12);
+        s3 += s4 + m15;
+        s14 = Integer.rotateRight(s14 ^ s3, 8);
+        s9 += s14;
+        s4 = Integer.rotateRight(s4 ^ s9, 7);
+        // Round 2.
+        s0 += s4 + m2;
+        s12 = Integer.rotateRight(s12 ^ s0, 16);
+        s8 += s12;
+        s4 = Integer.rotateRight(s4 ^ s8, 12);
+        s0 += s4 + m6;
+        s12 = Integer.rotateRight(s12 ^ s0, 8);
+        s8 += s12;
+        s4 = Integer.rotateRight(s4 ^ s8, 7);
+        s1 += s5 + m3;
+        s13 = Integer.rotateRight(s13 ^ s1, 16);
+        s9 += s13;
+        s5 = Integer.rotateRight(s5 ^ s9, 12);
+        s1 += s5 + m10;
+        s13 = Integer.rotateRight(s13 ^ s1, 8);
+        s9 += s13;
+        s5 = Integer.rotateRight(s5 ^ s9, 7);
+        s2 += s6 + m7;
+        s14 = Integer.rotateRight(s14 ^ s2, 16);
+        s10 += s14;
+        s6 = Integer.rotateRight(s6 ^ s10, 12);
+        s2 += s6 + m0;
+        s14 = Integer.rotateRight(s14 ^ s2, 8);
+        s10 += s14;
+        s6 = Integer.rotateRight(s6 ^ s10, 7);
+        s3 += s7 + m4;
+        s15 = Integer.rotateRight(s15 ^ s3, 16);
+        s11 += s15;
+        s7 = Integer.rotateRight(s7 ^ s11, 12);
+        s3 += s7 + m13;
+        s15 = Integer.rotateRight(s15 ^ s3, 8);
+        s11 += s15;
+        s7 = Integer.rotateRight(s7 ^ s11, 7);
+        s0 += s5 + m1;
+        s15 = Integer.rotateRight(s15 ^ s0, 16);
+        s10 += s15;
+        s5 = Integer.rotateRight(s5 ^ s10, 12);
+        s0 += s5 + m11;
+        s15 = Integer.rotateRight(s15 ^ s0, 8);
+        s10 += s15;
+        s5 = Integer.rotateRight(s5 ^ s10, 7);
+        s1 += s6 + m12;
+        s12 = Integer.rotateRight(s12 ^ s1, 16);
+        s11 += s12;
+        s6 = Integer.rotateRight(s6 ^ s11, 12);
+        s1 += s6 + m5;
+        s12 = Integer.rotateRight(s12 ^ s1, 8);
+        s11 += s12;
+        s6 = Integer.rotateRight(s6 ^ s11, 7);
+        s2 += s7 + m9;
+        s13 = Integer.rotateRight(s13 ^ s2, 16);
+        s8 += s13;
+        s7 = Integer.rotateRight(s7 ^ s8, 12);
+        s2 += s7 + m14;
+        s13 = Integer.rotateRight(s13 ^ s2, 8);
+        s8 += s13;
+        s7 = Integer.rotateRight(s7 ^ s8, 7);
+        s3 += s4 + m15;
+        s14 = Integer.rotateRight(s14 ^ s3, 16);
+        s9 += s14;
+        s4 = Integer.rotateRight(s4 ^ s9, 12);
+        s3 += s4 + m8;
+        s14 = Integer.rotateRight(s14 ^ s3, 8);
+        s9 += s14;
+        s4 = Integer.rotateRight(s4 ^ s9, 7);
+        // Round 3.
+        s0 += s4 + m3;
+        s12 = Integer.rotateRight(s12 ^ s0, 16);
+        s8 += s12;
+        s4 = Integer.rotateRight(s4 ^ s8, 12);
+        s0 += s4 + m4;
+        s12 = Integer.rotateRight(s12 ^ s0, 8);
+        s8 += s12;
+        s4 = Integer.rotateRight(s4 ^ s8, 7);
+        s1 += s5 + m10;
+        s13 = Integer.rotateRight(s13 ^ s1, 16);
+        s9 += s13;
+        s5 = Integer.rotateRight(s5 ^ s9, 12);
+        s1 += s5 + m12;
+        s13 = Integer.rotateRight(s13 ^ s1, 8);
+        s9 += s13;
+        s5 = Integer.rotateRight(s5 ^ s9, 7);
+        s2 += s6 + m13;
+        s14 = Integer.rotateRight(s14 ^ s2, 16);
+        s10 += s14;
+        s6 = Integer.rotateRight(s6 ^ s10, 12);
+        s2 += s6 + m2;
+        s14 = Integer.rotateRight(s14 ^ s2, 8);
+        s10 += s14;
+        s6 = Integer.rotateRight(s6 ^ s10, 7);
+        s3 += s7 + m7;
+        s15 = Integer.rotateRight(s15 ^ s3, 16);
+        s11 += s15;
+        s7 = Integer.rotateRight(s7 ^ s11, 12);
+        s3 += s7 + m14;
+        s15 = Integer.rotateRight(s15 ^ s3, 8);
+        s11 += s15;
+        s7 = Integer.rotateRight(s7 ^ s11, 7);
+        s0 += s5 + m6;
+        s15 = Integer.rotateRight(s15 ^ s0, 16);
+        s10 += s15;
+        s5 = Integer.rotateRight(s5 ^ s10, 12);
+        s0 += s5 + m5;
+        s15 = Integer.rotateRight(s15 ^ s0, 8);
+        s10 += s15;
+        s5 = Integer.rotateRight(s5 ^ s10, 7);
+        s1 += s6 + m9;
+        s12 = Integer.rotateRight(s12 ^ s1, 16);
+        s11 += s12;
+        s6 = Integer.rotateRight(s6 ^ s11, 12);
+        s1 += s6 + m0;
+        s12 = Integer.rotateRight(s12 ^ s1, 8);
+        s11 += s12;
+        s6 = Integer.rotateRight(s6 ^ s11, 7);
+        s2 += s7 + m11;
+        s13 = Integer.rotateRight(s13 ^ s2, 16);
+        s8 += s13;
+        s7 = Integer.rotateRight(s7 ^ s8, 12);
+        s2 += s7 + m15;
+        s13 = Integer.rotateRight(s13 ^ s2, 8);
+        s8 += s13;
+        s7 = Integer.rotateRight(s7 ^ s8, 7);
+        s3 += s4 + m8;
+        s14 = Integer.rotateRight(s14 ^ s3, 16);
+        s9 += s14;
+        s4 = Integer.rotateRight(s4 ^ s9, 12);
+        s3 += s4 + m1;
+        s14 = Integer.rotateRight(s14 ^ s3, 8);
+        s9 += s14;
+        s4 = Integer.rotateRight(s4 ^ s9, 7);
+        // Round 4.
+        s0 += s4 + m10;
+        s12 = Integer.rotateRight(s12 ^ s0, 16);
+        s8 += s12;
+        s4 = Integer.rotateRight(s4 ^ s8, 12);
+        s0 += s4 + m7;
+        s12 = Integer.rotateRight(s12 ^ s0, 8);
+        s8 += s12;
+        s4 = Integer.rotateRight(s4 ^ s8, 7);
+        s1 += s5 + m12;
+        s13 = Integer.rotateRight(s13 ^ s1, 16);
+        s9 += s13;
+        s5 = Integer.rotateRight(s5 ^ s9, 12);
+        s1 += s5 + m9;
+        s13 = Integer.rotateRight(s13 ^ s1, 8);
+        s9 += s13;
+        s5 = Integer.rotateRight(s5 ^ s9, 7);
+        s2 += s6 + m14;
+        s14 = Integer.rotateRight(s14 ^ s2, 16);
+        s10 += s14;
+        s6 = Integer.rotateRight(s6 ^ s10, 12);
+        s2 += s6 + m3;
+        s14 = Integer.rotateRight(s14 ^ s2, 8);
+        s10 += s14;
+        s6 = Integer.rotateRight(s6 ^ s10, 7);
+        s3 += s7 + m13;
+        s15 = Integer.rotateRight(s15 ^ s3, 16);
+        s11 += s15;
+        s7 = Integer.rotateRight(s7 ^ s11, 12);
+        s3 += s7 + m15;
+        s15 = Integer.rotateRight(s15 ^ s3, 8);
+        s11 += s15;
+        s7 = Integer.rotateRight(s7 ^ s11, 7);
+        s0 += s5 + m4;
+        s15 = Integer.rotateRight(s15 ^ s0, 16);
+        s10 += s15;
+        s5 = Integer.rotateRight(s5 ^ s10, 12);
+        s0 += s5 + m0;
+        s15 = Integer.rotateRight(s15 ^ s0, 8);
+        s10 += s15;
+        s5 = Integer.rotateRight(s5 ^ s10, 7);
+        s1 += s6 + m11;
+        s12 = Integer.rotateRight(s12 ^ s1, 16);
+        s11 += s12;
+        s6 = Integer.rotateRight(s6 ^ s11, 12);
+        s1 += s6 + m2;
+        s12 = Integer.rotateRight(s12 ^ s1, 8);
+        s11 += s12;
+        s6 = Integer.rotateRight(s6 ^ s11, 7);
+        s2 += s7 + m5;
+        s13 = Integer.rotateRight(s13 ^ s2, 16);
+        s8 += s13;
+        s7 = Integer.rotateRight(s7 ^ s8, 12);
+        s2 += s7 + m8;
+        s13 = Integer.rotateRight(s13 ^ s2, 8);
+        s8 += s13;
+        s7 = Integer.rotateRight(s7 ^ s8, 7);
+        s3 += s4 + m1;
+        s14 = Integer.rotateRight(s14 ^ s3, 16);
+        s9 += s14;
+        s4 = Integer.rotateRight(s4 ^ s9, 12);
+        s3 += s4 + m6;
+        s14 = Integer.rotateRight(s14 ^ s3, 8);
+        s9 += s14;
+        s4 = Integer.rotateRight(s4 ^ s9, 7);
+        // Round 5.
+        s0 += s4 + m12;
+        s12 = Integer.rotateRight(s12 ^ s0, 16);
+        s8 += s12;
+        s4 = Integer.rotateRight(s4 ^ s8, 12);
+        s0 += s4 + m13;
+        s12 = Integer.rotateRight(s12 ^ s0, 8);
+        s8 += s12;
+        s4 = Integer.rotateRight(s4 ^ s8, 7);
+        s1 += s5 + m9;
+        s13 = Integer.rotateRight(s13 ^ s1, 16);
+        s9 += s13;
+        s5 = Integer.rotateRight(s5 ^ s9, 12);
+        s1 += s5 + m11;
+        s13 = Integer.rotateRight(s13 ^ s1, 8);
+        s9 += s13;
+        s5 = Integer.rotateRight(s5 ^ s9, 7);
+        s2 += s6 + m15;
+        s14 = Integer.rotateRight(s14 ^ s2, 16);
+        s10 += s14;
+        s6 = Integer.rotateRight(s6 ^ s10, 12);
+        s2 += s6 + m10;
+        s14 = Integer.rotateRight(s14 ^ s2, 8);
+        s10 += s14;
+        s6 = Integer.rotateRight(s6 ^ s10, 7);
+        s3 += s7 + m14;
+        s15 = Integer.rotateRight(s15 ^ s3, 16);
+        s11 += s15;
+        s7 = Integer.rotateRight(s7 ^ s11, 12);
+        s3 += s7 + m8;
+        s15 = Integer.rotateRight(s15 ^ s3, 8);
+        s11 += s15;
+        s7 = Integer.rotateRight(s7 ^ s11, 7);
+        s0 += s5 + m7;
+        s15 = Integer.rotateRight(s15 ^ s0, 16);
+        s10 += s15;
+        s5 = Integer.rotateRight(s5 ^ s10, 12);
+        s0 += s5 + m2;
+        s15 = Integer.rotateRight(s15 ^ s0, 8);
+        s10 += s15;
+        s5 = Integer.rotateRight(s5 ^ s10, 7);
+        s1 += s6 + m5;
+        s12 = Integer.rotateRight(s12 ^ s1, 16);
+        s11 += s12;
+        s6 = Integer.rotateRight(s6 ^ s11, 12);
+        s1 += s6 + m3;
+        s12 = Integer.rotateRight(s12 ^ s1, 8);
+        s11 += s12;
+        s6 = Integer.rotateRight(s6 ^ s11, 7);
+        s2 += s7 + m0;
+        s13 = Integer.rotateRight(s13 ^ s2, 16);
+        s8 += s13;
+        s7 = Integer.rotateRight(s7 ^ s8, 12);
+        s2 += s7 + m1;
+        s13 = Integer.rotateRight(s13 ^ s2, 8);
+        s8 += s13;
+        s7 = Integer.rotateRight(s7 ^ s8, 7);
+        s3 += s4 + m6;
+        s14 = Integer.rotateRight(s14 ^ s3, 16);
+        s9 += s14;
+        s4 = Integer.rotateRight(s4 ^ s9, 12);
+        s3 += s4 + m4;
+        s14 = Integer.rotateRight(s14 ^ s3, 8);
+        s9 += s14;
+        s4 = Integer.rotateRight(s4 ^ s9, 7);
+        // Round 6.
+        s0 += s4 + m9;
+        s12 = Integer.rotateRight(s12 ^ s0, 16);
+        s8 += s12;
+        s4 = Integer.rotateRight(s4 ^ s8, 12);
+        s0 += s4 + m14;
+        s12 = Integer.rotateRight(s12 ^ s0, 8);
+        s8 += s12;
+        s4 = Integer.rotateRight(s4 ^ s8, 7);
+        s1 += s5 + m11;
+        s13 = Integer.rotateRight(s13 ^ s1, 16);
+        s9 += s13;
+        s5 = Integer.rotateRight(s5 ^ s9, 12);
+        s1 += s5 + m5;
+        s13 = Integer.rotateRight(s13 ^ s1, 8);
+        s9 += s13;
+        s5 = Integer.rotateRight(s5 ^ s9, 7);
+        s2 += s6 + m8;
+        s14 = Integer.rotateRight(s14 ^ s2, 16);
+        s10 += s14;
+        s6 = Integer.rotateRight(s6 ^ s10, 12);
+        s2 += s6 + m12;
+        s14 = Integer.rotateRight(s14 ^ s2, 8);
+        s10 += s14;
+        s6 = Integer.rotateRight(s6 ^ s10, 7);
+        s3 += s7 + m15;
+        s15 = Integer.rotateRight(s15 ^ s3, 16);
+        s11 += s15;
+        s7 = Integer.rotateRight(s7 ^ s11, 12);
+        s3 += s7 + m1;
+        s15 = Integer.rotateRight(s15 ^ s3, 8);
+        s11 += s15;
+        s7 = Integer.rotateRight(s7 ^ s11, 7);
+        s0 += s5 + m13;
+        s15 = Integer.rotateRight(s15 ^ s0, 16);
+        s10 += s15;
+        s5 = Integer.rotateRight(s5 ^ s10, 12);
+        s0 += s5 + m3;
+        s15 = Integer.rotateRight(s15 ^ s0, 8);
+        s10 += s15;
+        s5 = Integer.rotateRight(s5 ^ s10, 7);
+        s1 += s6 + m0;
+        s12 = Integer.rotateRight(s12 ^ s1, 16);
+        s11 += s12;
+        s6 = Integer.rotateRight(s6 ^ s11, 12);
+        s1 += s6 + m10;
+        s12 = Integer.rotateRight(s12 ^ s1, 8);
+        s11 += s12;
+        s6 = Integer.rotateRight(s6 ^ s11, 7);
+        s2 += s7 + m2;
+        s13 = Integer.rotateRight(s13 ^ s2, 16);
+        s8 += s13;
+        s7 = Integer.rotateRight(s7 ^ s8, 12);
+        s2 += s7 + m6;
+        s13 = Integer.rotateRight(s13 ^ s2, 8);
+        s8 += s13;
+        s7 = Integer.rotateRight(s7 ^ s8, 7);
+        s3 += s4 + m4;
+        s14 = Integer.rotateRight(s14 ^ s3, 16);
+        s9 += s14;
+        s4 = Integer.rotateRight(s4 ^ s9, 12);
+        s3 += s4 + m7;
+        s14 = Integer.rotateRight(s14 ^ s3, 8);
+        s9 += s14;
+        s4 = Integer.rotateRight(s4 ^ s9, 7);
+        // Round 7.
+        s0 += s4 + m11;
+        s12 = Integer.rotateRight(s12 ^ s0, 16);
+        s8 += s12;
+        s4 = Integer.rotateRight(s4 ^ s8, 12);
+        s0 += s4 + m15;
+        s12 = Integer.rotateRight(s12 ^ s0, 8);
+        s8 += s12;
+        s4 = Integer.rotateRight(s4 ^ s8, 7);
+        s1 += s5 + m5;
+        s13 = Integer.rotateRight(s13 ^ s1, 16);
+        s9 += s13;
+        s5 = Integer.rotateRight(s5 ^ s9, 12);
+        s1 += s5 + m0;
+        s13 = Integer.rotateRight(s13 ^ s1, 8);
+        s9 += s13;
+        s5 = Integer.rotateRight(s5 ^ s9, 7);
+        s2 += s6 + m1;
+        s14 = Integer.rotateRight(s14 ^ s2, 16);
+        s10 += s14;
+        s6 = Integer.rotateRight(s6 ^ s10, 12);
+        s2 += s6 + m9;
+        s14 = Integer.rotateRight(s14 ^ s2, 8);
+        s10 += s14;
+        s6 = Integer.rotateRight(s6 ^ s10, 7);
+        s3 += s7 + m8;
+        s15 = Integer.rotateRight(s15 ^ s3, 16);
+        s11 += s15;
+        s7 = Integer.rotateRight(s7 ^ s11, 12);
+        s3 += s7 + m6;
+        s15 = Integer.rotateRight(s15 ^ s3, 8);
+        s11 += s15;
+        s7 = Integer.rotateRight(s7 ^ s11, 7);
+        s0 += s5 + m14;
+        s15 = Integer.rotateRight(s15 ^ s0, 16);
+        s10 += s15;
+        s5 = Integer.rotateRight(s5 ^ s10, 12);
+        s0 += s5 + m10;
+        s15 = Integer.rotateRight(s15 ^ s0, 8);
+        s10 += s15;
+        s5 = Integer.rotateRight(s5 ^ s10, 7);
+        s1 += s6 + m2;
+        s12 = Integer.rotateRight(s12 ^ s1, 16);
+        s11 += s12;
+        s6 = Integer.rotateRight(s6 ^ s11, 12);
+        s1 += s6 + m12;
+        s12 = Integer.rotateRight(s12 ^ s1, 8);
+        s11 += s12;
+        s6 = Integer.rotateRight(s6 ^ s11, 7);
+        s2 += s7 + m3;
+        s13 = Integer.rotateRight(s13 ^ s2, 16);
+        s8 += s13;
+        s7 = Integer.rotateRight(s7 ^ s8, 12);
+        s2 += s7 + m4;
+        s13 = Integer.rotateRight(s13 ^ s2, 8);
+        s8 += s13;
+        s7 = Integer.rotateRight(s7 ^ s8, 7);
+        s3 += s4 + m7;
+        s14 = Integer.rotateRight(s14 ^ s3, 16);
+        s9 += s14;
+        s4 = Integer.rotateRight(s4 ^ s9, 12);
+        s3 += s4 + m13;
+        s14 = Integer.rotateRight(s14 ^ s3, 8);
+        s9 += s14;
+        s4 = Integer.rotateRight(s4 ^ s9, 7);
+        state[0] = s0 ^ s8;
+        state[1] = s1 ^ s9;
+        state[2] = s2 ^ s10;
+        state[3] = s3 ^ s11;
+        state[4] = s4 ^ s12;
+        state[5] = s5 ^ s13;
+        state[6] = s6 ^ s14;
+        state[7] = s7 ^ s15;
+        state[8] = s8 ^ cv[0];
+        state[9] = s9 ^ cv[1];
+        state[10] = s10 ^ cv[2];
+        state[11] = s11 ^ cv[3];
+        state[12] = s12 ^ cv[4];
+        state[13] = s13 ^ cv[5];
+        state[14] = s14 ^ cv[6];
+        state[15] = s15 ^ cv[7];
+    }
+}
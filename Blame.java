@@ -0,0 +1,168 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Attributes each line of a file to the commit that introduced it. Versions
+ * of the file are visited newest first; a line is passed on to the first
+ * parent whose version has it, trying every parent of a merge in order, and
+ * is credited to a commit only if no parent has it. Each version's origins
+ * are cached per (commit, blob) in .gitlet/blame, with null for lines that
+ * were not needed, so later runs stop at any version already worked out.
+ *
+ * @author StrangeMP
+ */
+class Blame {
+    /** The version of the file as of one commit. */
+    private static class Node {
+        final Commit commit;
+        final Blob blob;
+        final Lines lines;
+        /** Commit that introduced each line, null until known. */
+        final String[] origins;
+        /** For a line passed on to a parent, the parent's version and its line there. */
+        final Node[] fromNode;
+        final int[] fromLine;
+        final boolean[] needed;
+        final boolean[] done;
+        boolean queued;
+
+        Node(Commit commit, Blob blob) {
+            this.commit = commit;
+            this.blob = blob;
+            lines = new Lines(blob.contents());
+            int n = lines.size();
+            File cached = cacheFile(commit, blob);
+            origins = cached.isFile() ? Utils.readObject(cached, String[].class) : new String[n];
+            fromNode = new Node[n];
+            fromLine = new int[n];
+            needed = new boolean[n];
+            done = new boolean[n];
+        }
+    }
+
+    /**
+     * @return the lines of the version of F in HEAD, whose blob is BLOB, and
+     * for each of them the id of the commit that introduced it.
+     */
+    static Map.Entry<Lines, String[]> origins(Commit head, File f, Blob blob) {
+        Map<String, Node> nodes = new HashMap<>();
+        PriorityQueue<Node> queue = new PriorityQueue<>(
+                Comparator.comparing((Node n) -> n.commit.timeStamp).reversed());
+        Node top = new Node(head, blob);
+        nodes.put(head.sha1, top);
+        Arrays.fill(top.needed, true);
+        top.queued = true;
+        queue.add(top);
+        List<Node> visited = new ArrayList<>();
+        while (!queue.isEmpty()) {
+            Node node = queue.poll();
+            node.queued = false;
+            visited.add(node);
+            List<Integer> pending = new ArrayList<>();
+            for (int i = 0; i < node.needed.length; i++) {
+                if (node.needed[i] && !node.done[i]) {
+                    node.done[i] = true;
+                    if (node.origins[i] == null) {
+                        pending.add(i);
+                    }
+                }
+            }
+            for (String parentId : node.commit.parents) {
+                if (pending.isEmpty()) {
+                    break;
+                }
+                Commit parent = Repository.getCommit(parentId);
+                Blob parentBlob = parent.content.get(f);
+                if (parentBlob == null) {
+                    continue;
+                }
+                Node from = nodes.get(parentId);
+                if (from == null) {
+                    from = new Node(parent, parentBlob);
+                    nodes.put(parentId, from);
+                }
+                int[] toParent = parentBlob.sameAs(node.blob) ? null : toParent(from.lines, node.lines);
+                List<Integer> stillPending = new ArrayList<>();
+                for (int i : pending) {
+                    int j = toParent == null ? i : toParent[i];
+                    if (j < 0) {
+                        stillPending.add(i);
+                        continue;
+                    }
+                    node.fromNode[i] = from;
+                    node.fromLine[i] = j;
+                    from.needed[j] = true;
+                }
+                pending = stillPending;
+                if (!from.queued) {
+                    from.queued = true;
+                    queue.add(from);
+                }
+            }
+            for (int i : pending) {
+                node.origins[i] = node.commit.sha1;
+            }
+        }
+        for (Node node : visited) {
+            for (int i = 0; i < node.origins.length; i++) {
+                resolve(node, i);
+            }
+        }
+        Repository.BLAME_DIR.mkdir();
+        for (Node node : nodes.values()) {
+            Utils.writeObject(cacheFile(node.commit, node.blob), node.origins);
+        }
+        return Map.entry(top.lines, top.origins);
+    }
+
+    /**
+     * @return for each line of CHILD, the index of the line of PARENT it
+     * was kept from, or -1 if it was added.
+     */
+    private static int[] toParent(Lines parent, Lines child) {
+        int[] toChild = Diff.match(parent, child);
+        int[] result = new int[child.size()];
+        Arrays.fill(result, -1);
+        for (int j = 0; j < toChild.length; j++) {
+            if (toChild[j] >= 0) {
+                result[toChild[j]] = j;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Sets the origin of line I of NODE from the version it was passed on
+     * to, following the chain iteratively since it can be as long as the
+     * history.
+     */
+    private static void resolve(Node node, int i) {
+        List<Node> chainNodes = new ArrayList<>();
+        List<Integer> chainLines = new ArrayList<>();
+        Node n = node;
+        int line = i;
+        while (n.origins[line] == null && n.fromNode[line] != null) {
+            chainNodes.add(n);
+            chainLines.add(line);
+            Node next = n.fromNode[line];
+            line = n.fromLine[line];
+            n = next;
+        }
+        String origin = n.origins[line];
+        for (int k = 0; k < chainNodes.size(); k++) {
+            chainNodes.get(k).origins[chainLines.get(k)] = origin;
+        }
+    }
+
+    private static File cacheFile(Commit commit, Blob blob) {
+        return Utils.join(Repository.BLAME_DIR, commit.sha1 + "-" + blob.sha1());
+    }
+}
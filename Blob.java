@@ -1,32 +1,236 @@
 package gitlet;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
-import java.util.ArrayList;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.List;
 
 public class Blob implements Serializable {
-    File origin;
-    File underlying;
-    String sha1;
+    private static final long serialVersionUID = 4172842384316987834L;
+
+    /**
+     * Blobs are written as the name of the tracked file relative to the
+     * working directory, the id in hexadecimal and the large flag; in memory
+     * they keep the index of the path and the binary id instead.
+     */
+    private static final ObjectStreamField[] serialPersistentFields = {
+        new ObjectStreamField("name", String.class),
+        new ObjectStreamField("sha1", String.class),
+        new ObjectStreamField("large", boolean.class),
+    };
+
+    /** Index in the PathTable of the tracked file. */
+    transient int path;
+    transient ObjectId id;
+    /**
+     * True if the object file is only a pointer and the contents are kept
+     * in the large-object store.
+     */
+    transient boolean large;
 
     Blob(File f) {
-        origin = f;
-        sha1 = Repository.sha1OfFile(f);
-        underlying = Utils.join(Repository.OBJECT_DIR, sha1);
-        Repository.copyFile(f, underlying);
-        List<Blob> listOfBlobs = Repository.getBlobs().get(f);
-        if (listOfBlobs != null) {
-            listOfBlobs.add(this);
+        path = PathTable.intern(f);
+        String sha1 = Repository.sha1OfFile(f);
+        id = ObjectId.of(sha1);
+        File underlying = underlying();
+        long threshold = Config.getLong("lfs.threshold", 0);
+        large = threshold > 0 && f.length() > threshold;
+        if (large) {
+            File stored = Utils.join(largeObjectStore(), sha1);
+            if (!stored.exists()) {
+                stored.getParentFile().mkdirs();
+                Repository.copyFile(f, stored);
+            }
+            Utils.writeContents(underlying, "gitlet-lfs\noid " + sha1 + "\nsize " + f.length() + "\n");
         } else {
-            ArrayList<Blob> al = new ArrayList<>();
-            al.add(this);
-            Repository.getBlobs().put(f, al);
+            Repository.copyFile(f, underlying);
+        }
+    }
+
+    /**
+     * Creates a blob for version SHA1 of the file F from the temporary file
+     * STORED, which is moved into the object store, or into the large-object
+     * store if it is over lfs.threshold, unless that version is kept already.
+     */
+    Blob(File f, String sha1, Path stored) {
+        path = PathTable.intern(f);
+        id = ObjectId.of(sha1);
+        File underlying = underlying();
+        long size = stored.toFile().length();
+        long threshold = Config.getLong("lfs.threshold", 0);
+        large = threshold > 0 && size > threshold;
+        try {
+            if (large) {
+                File dest = Utils.join(largeObjectStore(), sha1);
+                if (!dest.exists()) {
+                    dest.getParentFile().mkdirs();
+                    Files.move(stored, dest.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+                Utils.writeContents(underlying, "gitlet-lfs\noid " + sha1 + "\nsize " + size + "\n");
+            } else if (!underlying.exists()) {
+                Files.move(stored, underlying.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            Files.deleteIfExists(stored);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
         }
     }
 
+    /**
+     * Creates a blob for version SHA1 of the file F, whose contents are
+     * already in the object store.
+     */
+    Blob(File f, String sha1) {
+        path = PathTable.intern(f);
+        id = ObjectId.of(sha1);
+    }
+
+    /**
+     * @return the id of this blob in hexadecimal.
+     */
+    String sha1() {
+        return id.toString();
+    }
+
+    /**
+     * @return the tracked file.
+     */
+    File origin() {
+        return PathTable.file(path);
+    }
+
+    /**
+     * @return the name of the tracked file, without its directory.
+     */
+    String name() {
+        return origin().getName();
+    }
+
+    /**
+     * @return the path of the tracked file relative to the working
+     * directory, with / separators.
+     */
+    String relativePath() {
+        Path relative = Repository.CWD.toPath().relativize(origin().getAbsoluteFile().toPath());
+        return relative.toString().replace(File.separatorChar, '/');
+    }
+
+    /**
+     * @return the object file of this blob.
+     */
+    File underlying() {
+        return Utils.join(Repository.OBJECT_DIR, sha1());
+    }
+
+    /**
+     * @return true if B has the same id as this blob.
+     */
+    boolean sameAs(Blob b) {
+        return b != null && id.equals(b.id);
+    }
+
+    /**
+     * @return the id of the blob for the file F holding CONTENTS.
+     */
+    static String idOf(File f, byte[] contents) {
+        String path = Repository.CWD.toPath().relativize(f.getAbsoluteFile().toPath()).toString();
+        return Utils.hash(path, contents);
+    }
+
+    /**
+     * Directory holding the contents of large blobs, set by lfs.store.
+     * It may be shared between repositories, standing in for a remote.
+     * It is only created when contents are first written to it.
+     */
+    static File largeObjectStore() {
+        String path = Config.get("lfs.store", null);
+        File store = path == null
+                ? Utils.join(Repository.COMMON_DIR, "lfs")
+                : Repository.CWD.toPath().resolve(path).toFile();
+        return store;
+    }
+
+    /**
+     * @return the large-object store of the repository whose shared .gitlet
+     * directory is COMMONDIR, with lfs.store taken relative to its working
+     * directory.
+     */
+    static File largeObjectStore(File commonDir) {
+        if (commonDir.equals(Repository.COMMON_DIR)) {
+            return largeObjectStore();
+        }
+        String path = Config.get(commonDir, "lfs.store", null);
+        File store = path == null
+                ? Utils.join(commonDir, "lfs")
+                : commonDir.getAbsoluteFile().getParentFile().toPath().resolve(path).toFile();
+        return store;
+    }
+
+    /**
+     * @return the file holding the contents of this blob.
+     */
+    File contents() {
+        if (large) {
+            File stored = Utils.join(largeObjectStore(), sha1());
+            if (!stored.exists()) {
+                Repository.fetchMissingBlobs(List.of(this));
+            }
+            return stored;
+        }
+        File underlying = underlying();
+        if (!underlying.exists()) {
+            Repository.fetchMissingBlobs(List.of(this));
+        }
+        return underlying;
+    }
+
+    /**
+     * Writes the contents of this blob to the file it tracks. Contents of a
+     * large blob are only read from the store at this point.
+     */
     public void checkout() {
-        Repository.copyFile(this.underlying, this.origin);
+        checkoutTo(origin());
+    }
+
+    /**
+     * Writes the contents of this blob to TARGET, creating its directory if
+     * need be.
+     */
+    void checkoutTo(File target) {
+        File source = contents();
+        if (!source.isFile()) {
+            Main.exit("Contents of " + relativePath() + " are missing from the large-object store.");
+        }
+        target.getParentFile().mkdirs();
+        Repository.copyFile(source, target);
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("name", relativePath());
+        fields.put("sha1", sha1());
+        fields.put("large", large);
+        out.writeFields();
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        path = PathTable.intern(Utils.join(Repository.CWD, (String) fields.get("name", null)));
+        id = ObjectId.of((String) fields.get("sha1", null));
+        large = fields.get("large", false);
+    }
+
+    /**
+     * Shares one instance per blob id among all loaded commits.
+     */
+    private Object readResolve() {
+        return Repository.BLOB_CACHE.intern(id, this);
     }
 
 }
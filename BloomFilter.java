@@ -0,0 +1,71 @@
+package gitlet;
+
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.BitSet;
+import java.util.Collection;
+
+/**
+ * A Bloom filter over file names, used to record which paths a commit changed
+ * relative to its first parent. A negative answer is definite, so history
+ * walks can skip a commit without loading its content.
+ *
+ * @author StrangeMP
+ */
+class BloomFilter implements Serializable {
+    private static final long serialVersionUID = 392990842037199889L;
+
+    private static final int BITS_PER_ENTRY = 10;
+    private static final int NUM_HASHES = 7;
+    private static final int MIN_BITS = 64;
+
+    private final BitSet bits;
+    private final int numBits;
+
+    /**
+     * @param paths the names to be recorded.
+     */
+    BloomFilter(Collection<String> paths) {
+        numBits = Math.max(MIN_BITS, paths.size() * BITS_PER_ENTRY);
+        bits = new BitSet(numBits);
+        for (String path : paths) {
+            long h = hash(path);
+            for (int i = 0; i < NUM_HASHES; i++) {
+                bits.set(index(h, i));
+            }
+        }
+    }
+
+    /**
+     * @return false if PATH was definitely not recorded in this filter.
+     */
+    boolean mightContain(String path) {
+        long h = hash(path);
+        for (int i = 0; i < NUM_HASHES; i++) {
+            if (!bits.get(index(h, i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Derives the I-th bit index from the two 32-bit halves of H
+     * by double hashing.
+     */
+    private int index(long h, int i) {
+        int h1 = (int) h;
+        int h2 = (int) (h >>> 32);
+        return Math.floorMod(h1 + i * h2, numBits);
+    }
+
+    /** 64-bit FNV-1a hash of the UTF-8 bytes of PATH. */
+    private static long hash(String path) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : path.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+}
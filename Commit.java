@@ -1,6 +1,9 @@
 package gitlet;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.*;
 import java.util.function.Consumer;
@@ -12,27 +15,41 @@ import java.util.function.Function;
  * @author StrangeMP
  */
 public class Commit implements Serializable, Comparable<Commit> {
+    private static final long serialVersionUID = -5628809123129070748L;
+
     final Date timeStamp;
     /**
      * The message of this Commit.
      */
     final String message;
 
-    final Commit[] parents;
+    /**
+     * Ids of the parent commits, first parent first.
+     */
+    final String[] parents;
 
     final String sha1;
 
-    HashMap<File, Blob> content;
+    /**
+     * Mapping tracked files to their blobs, written out as a list of blobs.
+     */
+    transient Tree content;
 
     Commit(String msg, Commit[] P) {
         message = msg;
-        this.parents = P[0] == null ? new Commit[0] : P;
+        if (P[0] == null) {
+            this.parents = new String[0];
+        } else {
+            this.parents = new String[P.length];
+            for (int i = 0; i < P.length; i++) {
+                this.parents[i] = P[i].sha1;
+            }
+        }
         timeStamp = this.parents.length == 0 ? new Date(0) : new Date();
-        sha1 = Utils.sha1(timeStamp.toString(), message);
         if (this.parents.length != 0) {
             Commit head = Repository.getHead();
-            content = (HashMap<File, Blob>) head.content.clone();
-            HashMap<File, StageObject> stage = Repository.getStage();
+            content = new Tree(head.content);
+            Map<File, StageObject> stage = Repository.getStage();
             // throws ConcurrentModificationException
             // for (File f : stage.keySet()) {
             //     if (stage.get(f) == null) {
@@ -53,8 +70,31 @@ public class Commit implements Serializable, Comparable<Commit> {
                 entryIterator.remove();
             }
         } else {
-            content = new HashMap<>();
+            content = new Tree();
+        }
+        sha1 = idOf(timeStamp, message, parents, content);
+    }
+
+    /**
+     * @return the id of a commit made at TIMESTAMP with MESSAGE, PARENTS and
+     * CONTENT. The time stamp only has a resolution of one second, so the
+     * parent ids and the sorted blob ids go into the id as well: commits made
+     * within the same second differ in at least one of them. The initial
+     * commit, with neither, keeps the id it had when only the time stamp and
+     * message were hashed.
+     */
+    private static String idOf(Date timeStamp, String message, String[] parents, Tree content) {
+        List<String> vals = new ArrayList<>();
+        vals.add(timeStamp.toString());
+        vals.add(message);
+        vals.addAll(Arrays.asList(parents));
+        List<String> blobIds = new ArrayList<>();
+        for (Blob b : content.values()) {
+            blobIds.add(b.sha1());
         }
+        Collections.sort(blobIds);
+        vals.addAll(blobIds);
+        return Utils.hash(vals.toArray());
     }
 
     @Override
@@ -76,8 +116,19 @@ public class Commit implements Serializable, Comparable<Commit> {
         return this.sha1.equals(((Commit) o).sha1);
     }
 
+    /**
+     * Writes the tracked files selected by the sparse checkout patterns to
+     * the working directory.
+     */
     public void restore() {
-        for (Blob blob : content.values()) {
+        List<Blob> included = new ArrayList<>();
+        for (Map.Entry<File, Blob> entry : content.entrySet()) {
+            if (Sparse.includes(entry.getKey())) {
+                included.add(entry.getValue());
+            }
+        }
+        Repository.fetchMissingBlobs(included);
+        for (Blob blob : included) {
             blob.checkout();
         }
     }
@@ -112,8 +163,8 @@ public class Commit implements Serializable, Comparable<Commit> {
         if (checkQuit.apply(operand)) {
             return;
         }
-        for (Commit cmt : operand.parents) {
-            dfs(cmt, op, checkQuit);
+        for (String id : operand.parents) {
+            dfs(Repository.getCommit(id), op, checkQuit);
         }
     }
 
@@ -121,17 +172,27 @@ public class Commit implements Serializable, Comparable<Commit> {
         return content.containsKey(f);
     }
 
-    public boolean hasIdenticalFile(File f) {
-        return tracks(f) && content.get(f).sha1.equals(Repository.sha1OfFile(f));
+    @Override
+    public int hashCode() {
+        return sha1.hashCode();
     }
 
-    public boolean hasBlob(Blob b) {
-        return content.containsValue(b);
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeInt(content.size());
+        for (Blob b : content.values()) {
+            out.writeObject(b);
+        }
     }
 
-    @Override
-    public int hashCode() {
-        return sha1.hashCode();
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        int size = in.readInt();
+        Blob[] blobs = new Blob[size];
+        for (int i = 0; i < size; i++) {
+            blobs[i] = (Blob) in.readObject();
+        }
+        content = Tree.of(blobs);
     }
 
 }
@@ -0,0 +1,103 @@
+package gitlet;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Properties;
+
+/**
+ * Repository settings, stored as a properties file in .gitlet/config.
+ *
+ * @author StrangeMP
+ */
+class Config {
+    private static final File CONFIG_FILE = Utils.join(Repository.COMMON_DIR, "config");
+    private static Properties properties;
+
+    private static Properties properties() {
+        if (properties == null) {
+            properties = load(CONFIG_FILE);
+        }
+        return properties;
+    }
+
+    private static Properties load(File file) {
+        Properties result = new Properties();
+        if (file.isFile()) {
+            try (Reader in = new FileReader(file)) {
+                result.load(in);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the value of KEY, or DEFAULTVALUE if it is not set.
+     */
+    static String get(String key, String defaultValue) {
+        return properties().getProperty(key, defaultValue);
+    }
+
+    /**
+     * @return the value of KEY in the settings of the repository whose
+     * shared .gitlet directory is COMMONDIR, or DEFAULTVALUE if it is not set.
+     */
+    static String get(File commonDir, String key, String defaultValue) {
+        return load(Utils.join(commonDir, "config")).getProperty(key, defaultValue);
+    }
+
+    /**
+     * @return the value of KEY as a number, or DEFAULTVALUE if it is not set.
+     */
+    static long getLong(String key, long defaultValue) {
+        String value = get(key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException excp) {
+            throw Utils.error("Invalid number for %s: %s", key, value);
+        }
+    }
+
+    /**
+     * Sets KEY to VALUE, or removes KEY if VALUE is null, and writes the
+     * settings back to disk.
+     */
+    static void set(String key, String value) {
+        if (value == null) {
+            properties().remove(key);
+        } else {
+            properties().setProperty(key, value);
+        }
+        try (Writer out = new FileWriter(CONFIG_FILE)) {
+            properties().store(out, null);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Handles the config command: prints the value of a key, or sets it.
+     *
+     * @param args the arguments passed to the config command.
+     */
+    static void command(String[] args) {
+        if (args.length == 2) {
+            String value = get(args[1], null);
+            if (value != null) {
+                System.out.println(value);
+            }
+        } else if (args[1].equals(HashAlgorithm.CONFIG_KEY)) {
+            Main.exit("The object format is fixed when the repository is created.");
+        } else {
+            set(args[1], args[2]);
+        }
+    }
+}
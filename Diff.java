@@ -0,0 +1,266 @@
+package gitlet;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.util.Arrays;
+
+/**
+ * Line-based diff using the linear-space refinement of Myers' O(ND) algorithm.
+ * Lines are compared by integer ids after interning, and the recursion only
+ * keeps two V vectors of size O(N + M) per level. The files themselves stay
+ * memory-mapped, see Lines, so heap use grows with their number of lines.
+ *
+ * @author StrangeMP
+ */
+class Diff {
+    /** Number of unchanged lines shown around each change. */
+    private static final int CONTEXT = 3;
+
+    /** Line ids of the old and the new sequence. */
+    private final int[] a;
+    private final int[] b;
+    /** For each line of the old sequence, index of its matching new line or -1. */
+    private final int[] matches;
+
+    private Diff(int[] a, int[] b) {
+        this.a = a;
+        this.b = b;
+        matches = new int[a.length];
+        Arrays.fill(matches, -1);
+        compare(0, a.length, 0, b.length);
+    }
+
+    /**
+     * Matches lines of OLDLINES against NEWLINES.
+     *
+     * @return an array holding, for each line of OLDLINES, the index of the
+     * line it is kept as in NEWLINES, or -1 if it was deleted.
+     */
+    static int[] match(Lines oldLines, Lines newLines) {
+        int[][] ids = intern(oldLines, newLines);
+        return new Diff(ids[0], ids[1]).matches;
+    }
+
+    /**
+     * @return for each of FILES, the ids of its lines: equal lines get equal
+     * ids. Distinct lines are found with an open-addressing table of line
+     * numbers, which compares the mapped bytes of lines whose hashes agree,
+     * so no line is copied onto the heap.
+     */
+    private static int[][] intern(Lines... files) {
+        int total = 0;
+        for (Lines f : files) {
+            total += f.size();
+        }
+        int mask = Integer.highestOneBit(Math.max(total, 1) * 2) * 2 - 1;
+        // Each slot holds the file and line number of the first line with its id.
+        int[] slotFile = new int[mask + 1];
+        int[] slotLine = new int[mask + 1];
+        int[] slotId = new int[mask + 1];
+        Arrays.fill(slotFile, -1);
+        int[][] result = new int[files.length][];
+        int nextId = 0;
+        for (int f = 0; f < files.length; f++) {
+            Lines lines = files[f];
+            result[f] = new int[lines.size()];
+            for (int i = 0; i < lines.size(); i++) {
+                int slot = lines.hash(i) & mask;
+                while (slotFile[slot] >= 0
+                        && !lines.same(i, files[slotFile[slot]], slotLine[slot])) {
+                    slot = (slot + 1) & mask;
+                }
+                if (slotFile[slot] < 0) {
+                    slotFile[slot] = f;
+                    slotLine[slot] = i;
+                    slotId[slot] = nextId++;
+                }
+                result[f][i] = slotId[slot];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Prints a unified diff between OLDFILE and NEWFILE, labelled NAME, to OUT.
+     * A null file stands for an absent one. Nothing is printed if the
+     * contents are identical.
+     */
+    static void unified(String name, File oldFile, File newFile, PrintStream out) {
+        unified(name, name, oldFile, newFile, out);
+    }
+
+    /**
+     * As above, for a file renamed from OLDNAME to NEWNAME. A rename is
+     * reported even if the contents are identical.
+     */
+    static void unified(String oldName, String newName, File oldFile, File newFile,
+                        PrintStream out) {
+        boolean renamed = !oldName.equals(newName);
+        Lines oldLines = new Lines(oldFile);
+        Lines newLines = new Lines(newFile);
+        int[] m = match(oldLines, newLines);
+
+        // Edit script as parallel sequences: op is ' ', '-' or '+', and
+        // text is the index of the old line, or ~ the index of the new one.
+        StringBuilder ops = new StringBuilder();
+        int[] text = new int[oldLines.size() + newLines.size()];
+        int t = 0;
+        int j = 0;
+        for (int i = 0; i < oldLines.size(); i++) {
+            while (m[i] >= 0 && j < m[i]) {
+                ops.append('+');
+                text[t++] = ~j++;
+            }
+            if (m[i] >= 0) {
+                ops.append(' ');
+                j++;
+            } else {
+                ops.append('-');
+            }
+            text[t++] = i;
+        }
+        while (j < newLines.size()) {
+            ops.append('+');
+            text[t++] = ~j++;
+        }
+        boolean changed = ops.indexOf("-") >= 0 || ops.indexOf("+") >= 0;
+        if (!changed && !renamed) {
+            return;
+        }
+
+        out.println("diff --git a/" + oldName + " b/" + newName);
+        if (renamed) {
+            out.println("rename from " + oldName);
+            out.println("rename to " + newName);
+        }
+        if (!changed) {
+            return;
+        }
+        out.println(oldFile == null ? "--- /dev/null" : "--- a/" + oldName);
+        out.println(newFile == null ? "+++ /dev/null" : "+++ b/" + newName);
+        int oldPos = 0;
+        int newPos = 0;
+        int k = 0;
+        while (k < ops.length()) {
+            if (ops.charAt(k) == ' ') {
+                oldPos++;
+                newPos++;
+                k++;
+                continue;
+            }
+            // a hunk starts CONTEXT lines before this change and extends
+            // until more than 2 * CONTEXT unchanged lines separate changes.
+            int lead = 0;
+            for (int p = k - 1; p >= 0 && lead < CONTEXT && ops.charAt(p) == ' '; p--) {
+                lead++;
+            }
+            int begin = k - lead;
+            int end = k;
+            int equalRun = 0;
+            while (end < ops.length() && equalRun <= 2 * CONTEXT) {
+                equalRun = ops.charAt(end) == ' ' ? equalRun + 1 : 0;
+                end++;
+            }
+            end -= Math.max(0, equalRun - CONTEXT);
+            int oldStart = oldPos - lead;
+            int newStart = newPos - lead;
+            int oldCount = 0;
+            int newCount = 0;
+            for (int p = begin; p < end; p++) {
+                char op = ops.charAt(p);
+                oldCount += op == '+' ? 0 : 1;
+                newCount += op == '-' ? 0 : 1;
+            }
+            out.println("@@ -" + range(oldStart, oldCount) + " +" + range(newStart, newCount) + " @@");
+            for (int p = begin; p < end; p++) {
+                String line = text[p] >= 0 ? oldLines.get(text[p]) : newLines.get(~text[p]);
+                out.print(ops.charAt(p));
+                if (line.endsWith("\n")) {
+                    out.print(line);
+                } else {
+                    out.println(line);
+                    out.println("\\ No newline at end of file");
+                }
+            }
+            oldPos = oldStart + oldCount;
+            newPos = newStart + newCount;
+            k = end;
+        }
+    }
+
+    private static String range(int start, int count) {
+        return (count == 0 ? start : start + 1) + "," + count;
+    }
+
+    private void compare(int aLo, int aHi, int bLo, int bHi) {
+        while (aLo < aHi && bLo < bHi && a[aLo] == b[bLo]) {
+            matches[aLo++] = bLo++;
+        }
+        while (aLo < aHi && bLo < bHi && a[aHi - 1] == b[bHi - 1]) {
+            matches[--aHi] = --bHi;
+        }
+        if (aLo == aHi || bLo == bHi) {
+            return;
+        }
+        int[] snake = middleSnake(aLo, aHi, bLo, bHi);
+        compare(aLo, aLo + snake[0], bLo, bLo + snake[1]);
+        for (int x = snake[0], y = snake[1]; x < snake[2]; x++, y++) {
+            matches[aLo + x] = bLo + y;
+        }
+        compare(aLo + snake[2], aHi, bLo + snake[3], bHi);
+    }
+
+    /**
+     * Finds the middle snake of the shortest edit script between
+     * a[aLo, aHi) and b[bLo, bHi).
+     *
+     * @return {x, y, u, v}, the start and end of the snake relative to (aLo, bLo).
+     */
+    private int[] middleSnake(int aLo, int aHi, int bLo, int bHi) {
+        int n = aHi - aLo;
+        int m = bHi - bLo;
+        int delta = n - m;
+        boolean odd = (delta & 1) != 0;
+        int max = (n + m + 1) / 2;
+        int off = max + 1;
+        int[] vf = new int[2 * max + 3];
+        int[] vb = new int[2 * max + 3];
+        vf[off + 1] = 0;
+        vb[off + 1] = 0;
+        for (int d = 0; d <= max; d++) {
+            for (int k = -d; k <= d; k += 2) {
+                int x = (k == -d || (k != d && vf[off + k - 1] < vf[off + k + 1]))
+                        ? vf[off + k + 1] : vf[off + k - 1] + 1;
+                int y = x - k;
+                int x0 = x;
+                int y0 = y;
+                while (x < n && y < m && a[aLo + x] == b[bLo + y]) {
+                    x++;
+                    y++;
+                }
+                vf[off + k] = x;
+                int kr = delta - k;
+                if (odd && kr >= -(d - 1) && kr <= d - 1 && x + vb[off + kr] >= n) {
+                    return new int[]{x0, y0, x, y};
+                }
+            }
+            for (int kr = -d; kr <= d; kr += 2) {
+                int x = (kr == -d || (kr != d && vb[off + kr - 1] < vb[off + kr + 1]))
+                        ? vb[off + kr + 1] : vb[off + kr - 1] + 1;
+                int y = x - kr;
+                int x0 = x;
+                int y0 = y;
+                while (x < n && y < m && a[aHi - 1 - x] == b[bHi - 1 - y]) {
+                    x++;
+                    y++;
+                }
+                vb[off + kr] = x;
+                int k = delta - kr;
+                if (!odd && k >= -d && k <= d && x + vf[off + k] >= n) {
+                    return new int[]{n - x, m - y, n - x0, m - y0};
+                }
+            }
+        }
+        throw Utils.error("Internal error computing diff.");
+    }
+}
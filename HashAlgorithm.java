@@ -0,0 +1,142 @@
+package gitlet;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Properties;
+
+/**
+ * Hash functions available for object ids. A repository's function is
+ * chosen at init and recorded as core.objectFormat in its config; object
+ * ids are lowercase hexadecimal digests, so their length follows from it.
+ * Repositories created before the setting existed use SHA-1.
+ *
+ * @author StrangeMP
+ */
+enum HashAlgorithm {
+    SHA1("sha1", "SHA-1", 20),
+    SHA256("sha256", "SHA-256", 32),
+    BLAKE3("blake3", null, 32);
+
+    static final String CONFIG_KEY = "core.objectFormat";
+
+    private static HashAlgorithm current;
+
+    private final String name;
+    private final String jdkName;
+    private final int digestLength;
+
+    HashAlgorithm(String name, String jdkName, int digestLength) {
+        this.name = name;
+        this.jdkName = jdkName;
+        this.digestLength = digestLength;
+    }
+
+    /**
+     * @return a new digest computing this function.
+     */
+    MessageDigest newDigest() {
+        if (jdkName == null) {
+            return new Blake3();
+        }
+        try {
+            return MessageDigest.getInstance(jdkName);
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support " + jdkName);
+        }
+    }
+
+    /**
+     * @return the length of an object id in hexadecimal digits.
+     */
+    int hexLength() {
+        return digestLength * 2;
+    }
+
+    /**
+     * @return true if ID has the form of an object id of this function:
+     * hexLength() lowercase hexadecimal digits.
+     */
+    boolean isId(String id) {
+        if (id.length() != hexLength()) {
+            return false;
+        }
+        for (int i = 0; i < id.length(); i++) {
+            char c = id.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return DIGEST as an object id.
+     */
+    static String hex(byte[] digest) {
+        return HexFormat.of().formatHex(digest);
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    /**
+     * @return the function called NAME, or null if there is none.
+     */
+    static HashAlgorithm named(String name) {
+        for (HashAlgorithm algorithm : values()) {
+            if (algorithm.name.equals(name)) {
+                return algorithm;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the function of the repository in the working directory.
+     */
+    static HashAlgorithm current() {
+        if (current == null) {
+            current = parse(Config.get(CONFIG_KEY, SHA1.name));
+        }
+        return current;
+    }
+
+    /**
+     * Makes ALGORITHM the function of the repository being created.
+     */
+    static void use(HashAlgorithm algorithm) {
+        current = algorithm;
+    }
+
+    /**
+     * @return the function recorded by the repository whose shared
+     * .gitlet directory is COMMONDIR.
+     */
+    static HashAlgorithm recordedIn(File commonDir) {
+        Properties properties = new Properties();
+        File config = Utils.join(commonDir, "config");
+        if (config.isFile()) {
+            try (Reader in = new FileReader(config)) {
+                properties.load(in);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+        return parse(properties.getProperty(CONFIG_KEY, SHA1.name));
+    }
+
+    private static HashAlgorithm parse(String name) {
+        HashAlgorithm algorithm = named(name.trim());
+        if (algorithm == null) {
+            throw Utils.error("Unknown object format %s.", name);
+        }
+        return algorithm;
+    }
+}
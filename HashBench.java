@@ -0,0 +1,65 @@
+package gitlet;
+
+import java.security.MessageDigest;
+import java.util.Random;
+
+/** A benchmark of the object hash functions, whose main program may be
+ *  invoked as follows:
+ *      java gitlet.HashBench [MEBIBYTES]
+ *  For each function it hashes MEBIBYTES (default 256) of random data as
+ *  one stream in 64 KiB updates, and again as 4 KiB objects each hashed on
+ *  its own, the way small files are, and prints the throughput of each.
+ *  Each measurement follows an untimed warm-up run.
+ *  @author StrangeMP
+ */
+public class HashBench {
+    private static final int UPDATE_SIZE = 1 << 16;
+    private static final int OBJECT_SIZE = 1 << 12;
+
+    public static void main(String[] args) {
+        long total = (args.length > 0 ? Long.parseLong(args[0]) : 256) << 20;
+        byte[] data = new byte[UPDATE_SIZE];
+        new Random(0).nextBytes(data);
+        System.out.printf("%-8s %12s %12s%n", "hash", "stream MB/s", "4KiB MB/s");
+        for (HashAlgorithm algorithm : HashAlgorithm.values()) {
+            stream(algorithm, data, total);
+            double streamRate = rate(total, stream(algorithm, data, total));
+            objects(algorithm, data, total);
+            double objectRate = rate(total, objects(algorithm, data, total));
+            System.out.printf("%-8s %12.1f %12.1f%n", algorithm, streamRate, objectRate);
+        }
+    }
+
+    /** Returns the nanoseconds taken to hash TOTAL bytes of DATA as one stream. */
+    private static long stream(HashAlgorithm algorithm, byte[] data, long total) {
+        long start = System.nanoTime();
+        MessageDigest md = algorithm.newDigest();
+        for (long done = 0; done < total; done += data.length) {
+            md.update(data);
+        }
+        consume(md.digest());
+        return System.nanoTime() - start;
+    }
+
+    /** Returns the nanoseconds taken to hash TOTAL bytes of DATA as separate objects. */
+    private static long objects(HashAlgorithm algorithm, byte[] data, long total) {
+        long start = System.nanoTime();
+        for (long done = 0; done < total; done += OBJECT_SIZE) {
+            MessageDigest md = algorithm.newDigest();
+            md.update(data, (int) (done % data.length), OBJECT_SIZE);
+            consume(md.digest());
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static double rate(long bytes, long nanos) {
+        return bytes / 1e6 / (nanos / 1e9);
+    }
+
+    private static int sink;
+
+    /** Keeps DIGEST from being optimized away. */
+    private static void consume(byte[] digest) {
+        sink += digest[0];
+    }
+}
@@ -0,0 +1,105 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * diff3-style three-way merge of text files. Both sides are diffed against
+ * the common base; regions changed on only one side are taken from that side
+ * and conflict markers are emitted only around regions changed on both.
+ *
+ * @author StrangeMP
+ */
+class LineMerge {
+    private static final byte[] OURS_MARKER = "<<<<<<< HEAD\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] SEPARATOR = "=======\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] THEIRS_MARKER = ">>>>>>>\n".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * Merges OURS and THEIRS against their common ancestor BASE, writing the
+     * result to OUT as it is produced. Any of the three inputs may be null,
+     * standing for an absent (empty) file.
+     *
+     * @return true if every change was resolved without a conflict.
+     */
+    static boolean merge(File base, File ours, File theirs, File out) {
+        try (OutputStream w = new BufferedOutputStream(Files.newOutputStream(out.toPath()))) {
+            return merge(base, ours, theirs, w);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * As above, writing the result to the stream W.
+     */
+    static boolean merge(File base, File ours, File theirs, OutputStream w) throws IOException {
+        Lines o = new Lines(base);
+        Lines a = new Lines(ours);
+        Lines b = new Lines(theirs);
+        int[] ma = Diff.match(o, a);
+        int[] mb = Diff.match(o, b);
+        boolean clean = true;
+        int io = 0;
+        int ia = 0;
+        int ib = 0;
+        while (true) {
+            // lines kept unchanged by both sides
+            while (io < o.size() && ma[io] == ia && mb[io] == ib) {
+                write(w, o, io, io + 1);
+                io++;
+                ia++;
+                ib++;
+            }
+            // the next base line kept by both sides ends the unstable chunk
+            int k = io;
+            while (k < o.size() && (ma[k] < 0 || mb[k] < 0)) {
+                k++;
+            }
+            int ea = k < o.size() ? ma[k] : a.size();
+            int eb = k < o.size() ? mb[k] : b.size();
+            if (io == k && ia == ea && ib == eb) {
+                break;
+            }
+            if (same(o, io, k, a, ia, ea)) {
+                write(w, b, ib, eb);
+            } else if (same(o, io, k, b, ib, eb) || same(a, ia, ea, b, ib, eb)) {
+                write(w, a, ia, ea);
+            } else {
+                clean = false;
+                w.write(OURS_MARKER);
+                write(w, a, ia, ea);
+                w.write(SEPARATOR);
+                write(w, b, ib, eb);
+                w.write(THEIRS_MARKER);
+            }
+            io = k;
+            ia = ea;
+            ib = eb;
+        }
+        return clean;
+    }
+
+    private static boolean same(Lines x, int xLo, int xHi, Lines y, int yLo, int yHi) {
+        if (xHi - xLo != yHi - yLo) {
+            return false;
+        }
+        for (int i = 0; i < xHi - xLo; i++) {
+            if (!x.same(xLo + i, y, yLo + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void write(OutputStream w, Lines lines, int lo, int hi)
+            throws IOException {
+        for (int i = lo; i < hi; i++) {
+            lines.write(w, i);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * The lines of a file, each keeping its terminating newline. The file is
+ * memory-mapped and only the offset of each line is kept on the heap, so
+ * memory grows with the number of lines rather than with the size of the
+ * file; a line is only copied out when it is printed or written. Bytes are
+ * decoded as ISO-8859-1 so that arbitrary content round-trips.
+ *
+ * @author StrangeMP
+ */
+class Lines {
+    private final ByteBuffer buf;
+    /** starts[i] is the offset of line i, and starts[size] the end of the last. */
+    private final int[] starts;
+    private final int size;
+
+    /**
+     * Splits the contents of F into lines. A null F is treated as an empty
+     * file.
+     */
+    Lines(File f) {
+        if (f == null) {
+            buf = ByteBuffer.allocate(0);
+        } else {
+            try (FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+                buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+        int limit = buf.limit();
+        int[] offsets = new int[16];
+        int n = 0;
+        for (int i = 0; i < limit; i++) {
+            if (buf.get(i) == '\n' || i == limit - 1) {
+                if (n + 1 == offsets.length) {
+                    offsets = Arrays.copyOf(offsets, offsets.length * 2);
+                }
+                offsets[++n] = i + 1;
+            }
+        }
+        starts = offsets;
+        size = n;
+    }
+
+    /**
+     * @return the number of lines.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return line I.
+     */
+    String get(int i) {
+        byte[] line = new byte[starts[i + 1] - starts[i]];
+        buf.get(starts[i], line);
+        return new String(line, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Writes the bytes of line I to OUT.
+     */
+    void write(OutputStream out, int i) throws IOException {
+        byte[] line = new byte[starts[i + 1] - starts[i]];
+        buf.get(starts[i], line);
+        out.write(line);
+    }
+
+    /**
+     * @return a hash of the bytes of line I.
+     */
+    int hash(int i) {
+        int h = 0;
+        for (int p = starts[i]; p < starts[i + 1]; p++) {
+            h = 31 * h + buf.get(p);
+        }
+        return h;
+    }
+
+    /**
+     * @return true if line I has the same bytes as line J of OTHER.
+     */
+    boolean same(int i, Lines other, int j) {
+        int length = starts[i + 1] - starts[i];
+        return length == other.starts[j + 1] - other.starts[j]
+                && buf.slice(starts[i], length).equals(other.buf.slice(other.starts[j], length));
+    }
+}
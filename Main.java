@@ -1,6 +1,16 @@
 package gitlet;
 
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.stream.Collectors;
 
 /**
  * Driver class for Gitlet, a subset of the Git version-control system.
@@ -14,17 +24,25 @@ public class Main {
         }
     }
 
+    /**
+     * Reports the error MSG and ends the process, or in batch mode ends only
+     * the current command by throwing a GitletException.
+     */
     public static void exit(String msg) {
+        if (inBatch) {
+            throw new GitletException(msg);
+        }
         System.out.println(msg);
         System.exit(0);
     }
 
     private static final Map<String, List<Integer>> ARGSNUM = new HashMap<>(Map.ofEntries(
-            Map.entry("init", List.of(1)),
+            Map.entry("init", List.of(1, 2)),
             Map.entry("add", List.of(2)),
             Map.entry("commit", List.of(2)),
             Map.entry("rm", List.of(2)),
-            Map.entry("log", List.of(1)),
+            Map.entry("log", List.of(1, 3, 5, 7, 9)),
+            Map.entry("backfill-bloom", List.of(1)),
             Map.entry("global-log", List.of(1)),
             Map.entry("find", List.of(2)),
             Map.entry("status", List.of(1)),
@@ -32,14 +50,96 @@ public class Main {
             Map.entry("branch", List.of(2)),
             Map.entry("rm-branch", List.of(2)),
             Map.entry("reset", List.of(2)),
-            Map.entry("merge", List.of(2))
+            Map.entry("merge", List.of(2, 3)),
+            Map.entry("cherry-pick", List.of(2, 3)),
+            Map.entry("diff", List.of(1, 2, 3)),
+            Map.entry("blame", List.of(2)),
+            Map.entry("gc", List.of(1, 2)),
+            Map.entry("fsck", List.of(1)),
+            Map.entry("config", List.of(2, 3)),
+            Map.entry("add-remote", List.of(3)),
+            Map.entry("rm-remote", List.of(2)),
+            Map.entry("fetch", List.of(3)),
+            Map.entry("push", List.of(3)),
+            Map.entry("clone", List.of(2, 3)),
+            Map.entry("bundle", List.of(3, 4)),
+            Map.entry("worktree", List.of(2, 4)),
+            Map.entry("sparse-checkout", List.of(2)),
+            Map.entry("stats", List.of(1, 2)),
+            Map.entry("maintenance", List.of(2, 3)),
+            Map.entry("batch", List.of(1, 2, 3)),
+            Map.entry("archive", List.of(3))
     ));
 
+    /**
+     * Commands taking any number of operands beyond the count listed in ARGSNUM.
+     */
+    private static final Set<String> VARIADIC = Set.of("add", "sparse-checkout");
+
+    /**
+     * Commands after which maintenance need not be considered.
+     */
+    private static final Set<String> READ_ONLY = Set.of("find", "status", "diff", "blame",
+            "fsck", "archive");
+
+    /**
+     * Commands that do not load the repository.
+     */
+    private static final Set<String> NO_LOAD = Set.of("log", "global-log", "backfill-bloom",
+            "config", "add-remote", "rm-remote", "stats", "maintenance");
+
+    /**
+     * Commands not accepted in batch mode: they create a repository, or load
+     * it from disk themselves while the batch holds unsaved changes.
+     */
+    private static final Set<String> NOT_IN_BATCH = Set.of("init", "clone", "batch",
+            "stats", "maintenance");
+
+    /** True while running a batch, where exit throws rather than ending the process. */
+    private static boolean inBatch;
+
     /**
      * Usage: java gitlet.Main ARGS, where ARGS contains
      * <COMMAND> <OPERAND1> <OPERAND2> ...
+     * Run with -Dgitlet.cacheStats=true to print object cache counters on exit.
      */
     public static void main(String[] args) {
+        if (Boolean.getBoolean("gitlet.cacheStats")) {
+            Runtime.getRuntime().addShutdownHook(new Thread(() ->
+                    System.err.println(Repository.COMMIT_CACHE.stats() + "\n"
+                            + Repository.BLOB_CACHE.stats())));
+        }
+        checkOperands(args);
+        String firstArg = args[0];
+
+        Repository repo;
+        if (firstArg.equals("init")) {
+            repo = Repository.init(args);
+            repo.save();
+        } else if (firstArg.equals("clone")) {
+            repo = Repository.cloneFrom(args);
+            repo.save();
+        } else {
+            checkInitialized();
+            if (firstArg.equals("batch")) {
+                batch(args);
+            } else if (NO_LOAD.contains(firstArg)) {
+                runWithoutRepository(args);
+            } else {
+                FileChannel lock = Maintenance.lock();
+                repo = Repository.load();
+                run(repo, args);
+                repo.save();
+                unlock(lock);
+                if (!READ_ONLY.contains(firstArg)) {
+                    Maintenance.schedule();
+                }
+            }
+        }
+
+    }
+
+    private static void checkOperands(String[] args) {
         if (args.length == 0) {
             Main.exit("Please enter a command.");
         }
@@ -47,78 +147,304 @@ public class Main {
         if (!ARGSNUM.containsKey(firstArg)) {
             Main.exit("No command with that name exists.");
         }
-        if (!ARGSNUM.get(firstArg).contains(args.length)) {
+        if (!ARGSNUM.get(firstArg).contains(args.length)
+                && !(VARIADIC.contains(firstArg) && args.length > ARGSNUM.get(firstArg).get(0))) {
             Main.exit("Incorrect operands.");
         }
+    }
 
-        Repository repo;
-        if (firstArg.equals("init")) {
-            repo = Repository.init();
-            repo.save();
-        } else {
-            checkInitialized();
-            Set<String> noLoad = new HashSet<>(Arrays.asList("log", "global-log"));
-            if (noLoad.contains(firstArg)) {
-                switch (firstArg) {
-                    case "log":
-                        Repository.log();
-                        break;
-                    case "global-log":
-                        Repository.globalLog();
-                        break;
-
-                    default:
-                        break;
+    private static void unlock(FileChannel lock) {
+        try {
+            lock.close();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Runs one of the NO_LOAD commands given by ARGS.
+     */
+    private static void runWithoutRepository(String[] args) {
+        switch (args[0]) {
+            case "log":
+                Repository.log(args);
+                break;
+            case "global-log":
+                Repository.globalLog();
+                break;
+            case "backfill-bloom":
+                Repository.backfillBloom();
+                break;
+            case "config":
+                Config.command(args);
+                break;
+            case "add-remote":
+                Repository.addRemote(args[1], args[2]);
+                break;
+            case "rm-remote":
+                Repository.removeRemote(args[1]);
+                break;
+            case "stats":
+                Repository.stats(args);
+                break;
+            case "maintenance":
+                Maintenance.command(args);
+                break;
+
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Runs the command given by ARGS against the loaded repository REPO.
+     */
+    private static void run(Repository repo, String[] args) {
+        switch (args[0]) {
+            case "add":
+                repo.add(args);
+                break;
+            case "commit":
+                repo.commit(args[1]);
+                break;
+            case "rm":
+                repo.rm(args[1]);
+                break;
+            case "find":
+                List<String> ids = Repository.find(args[1]);
+                if (ids.isEmpty()) {
+                    Main.exit("Found no commit with that message.");
+                }
+                for (String id : ids) {
+                    System.out.println(id);
                 }
+                break;
+            case "status":
+                String statusStr = repo.status();
+                System.out.println(statusStr);
+                break;
+            case "checkout":
+                repo.checkout(args);
+                break;
+            case "branch":
+                repo.makeBranch(args[1]);
+                break;
+            case "rm-branch":
+                repo.removeBranch(args[1]);
+                break;
+            case "reset":
+                repo.reset(args[1]);
+                break;
+            case "merge":
+                repo.merge(args);
+                break;
+            case "cherry-pick":
+                repo.cherryPick(args);
+                break;
+            case "diff":
+                repo.diff(args);
+                break;
+            case "blame":
+                repo.blame(args[1]);
+                break;
+            case "gc":
+                repo.gc(args);
+                break;
+            case "fsck":
+                repo.fsck();
+                break;
+            case "fetch":
+                repo.fetch(args[1], args[2]);
+                break;
+            case "push":
+                repo.push(args[1], args[2]);
+                break;
+            case "bundle":
+                repo.bundle(args);
+                break;
+            case "worktree":
+                repo.worktree(args);
+                break;
+            case "sparse-checkout":
+                repo.sparseCheckout(args);
+                break;
+            case "archive":
+                repo.archive(args);
+                break;
+            default:
+                break;
+        }
+    }
 
+    /**
+     * Handles batch [file] [--save-each], which runs the commands listed one
+     * per line in the file, or on standard input, in this process against
+     * the repository loaded once. Operands containing spaces are written in
+     * double quotes; blank lines and lines starting with # are skipped. The
+     * repository is saved once at the end, or after every command that
+     * succeeds with --save-each. Changes a failed command made to the loaded
+     * repository are discarded, as they would be if it ran on its own.
+     *
+     * Each command's result is printed as a line of JSON holding its line
+     * number, the command, its exit code (0 on success, 1 for a Gitlet
+     * error, 2 for an unexpected failure) and its output or error message.
+     * The process exits with 1 if any command failed.
+     *
+     * @param args the arguments passed to the batch command.
+     */
+    private static void batch(String[] args) {
+        boolean saveEach = false;
+        String source = null;
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("--save-each")) {
+                saveEach = true;
+            } else if (source == null) {
+                source = args[i];
             } else {
-                repo = Repository.load();
-                switch (firstArg) {
-                    case "add":
-                        repo.add(args[1]);
-                        break;
-                    case "commit":
-                        repo.commit(args[1]);
-                        break;
-                    case "rm":
-                        repo.rm(args[1]);
-                        break;
-                    case "find":
-                        List<String> ids = Repository.find(args[1]);
-                        if (ids.isEmpty()) {
-                            Main.exit("Found no commit with that message.");
-                        }
-                        for (String id : ids) {
-                            System.out.println(id);
-                        }
-                        break;
-                    case "status":
-                        String statusStr = repo.status();
-                        System.out.println(statusStr);
-                        break;
-                    case "checkout":
-                        repo.checkout(args);
-                        break;
-                    case "branch":
-                        repo.makeBranch(args[1]);
-                        break;
-                    case "rm-branch":
-                        repo.removeBranch(args[1]);
-                        break;
-                    case "reset":
-                        repo.reset(args[1]);
-                        break;
-                    case "merge":
-                        repo.merge(args[1]);
-                        break;
-                    default:
-                        break;
-                }
-                repo.save();
+                Main.exit("Incorrect operands.");
             }
         }
+        List<String> lines;
+        try (BufferedReader in = source == null
+                ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))
+                : Files.newBufferedReader(Path.of(source), StandardCharsets.UTF_8)) {
+            lines = in.lines().collect(Collectors.toList());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
 
+        FileChannel lock = Maintenance.lock();
+        Repository repo = Repository.load();
+        PrintStream stdout = System.out;
+        boolean failed = false;
+        inBatch = true;
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i).trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            System.setOut(new PrintStream(output, true, StandardCharsets.UTF_8));
+            int exitCode = 0;
+            String message;
+            byte[] snapshot = null;
+            try {
+                String[] command = split(line);
+                checkOperands(command);
+                if (NOT_IN_BATCH.contains(command[0])) {
+                    Main.exit("That command cannot be used in batch mode.");
+                } else if (NO_LOAD.contains(command[0])) {
+                    // These read HEAD from disk; it must name the branch checked out in the batch.
+                    repo.saveHead();
+                    runWithoutRepository(command);
+                } else {
+                    snapshot = saveEach ? null : repo.snapshot();
+                    run(repo, command);
+                }
+                if (saveEach) {
+                    repo.save();
+                }
+                message = output.toString(StandardCharsets.UTF_8);
+            } catch (GitletException excp) {
+                exitCode = 1;
+                message = output.toString(StandardCharsets.UTF_8) + excp.getMessage();
+            } catch (RuntimeException excp) {
+                exitCode = 2;
+                message = output.toString(StandardCharsets.UTF_8) + excp;
+            }
+            // Drop what a failed command changed in memory, as a failed
+            // command run on its own never saves.
+            if (exitCode != 0 && saveEach) {
+                repo = Repository.load();
+            } else if (exitCode != 0 && snapshot != null) {
+                repo = Repository.restore(snapshot);
+            }
+            System.setOut(stdout);
+            failed |= exitCode != 0;
+            stdout.println("{\"line\":" + (i + 1) + ",\"command\":" + quote(line)
+                    + ",\"exit\":" + exitCode + ",\"output\":" + quote(message.strip()) + "}");
+        }
+        inBatch = false;
+        if (!saveEach) {
+            repo.save();
+        }
+        unlock(lock);
+        Maintenance.schedule();
+        if (failed) {
+            System.exit(1);
+        }
     }
 
+    /**
+     * @return the words of LINE, where a double-quoted run of characters,
+     * with \" and \\ escapes, is one word.
+     */
+    private static String[] split(String line) {
+        List<String> words = new ArrayList<>();
+        StringBuilder word = null;
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"') {
+                    quoted = false;
+                } else if (c == '\\' && i + 1 < line.length()) {
+                    word.append(line.charAt(++i));
+                } else {
+                    word.append(c);
+                }
+            } else if (Character.isWhitespace(c)) {
+                if (word != null) {
+                    words.add(word.toString());
+                    word = null;
+                }
+            } else {
+                if (word == null) {
+                    word = new StringBuilder();
+                }
+                if (c == '"') {
+                    quoted = true;
+                } else {
+                    word.append(c);
+                }
+            }
+        }
+        if (quoted) {
+            Main.exit("Unterminated quote.");
+        }
+        if (word != null) {
+            words.add(word.toString());
+        }
+        return words.toArray(new String[0]);
+    }
 
+    /**
+     * @return S as a JSON string literal.
+     */
+    private static String quote(String s) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (char c : s.toCharArray()) {
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < ' ') {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        return sb.append('"').toString();
+    }
 }
@@ -0,0 +1,178 @@
+package gitlet;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.util.Properties;
+
+/**
+ * Automatic repository maintenance. At the end of each command that changes
+ * the repository a few counters are compared with thresholds set in the
+ * config; when one is exceeded, a detached maintenance run process does the
+ * work, so the command itself returns at once. Thresholds are:
+ * maintenance.looseObjects, objects written since the last run (default
+ * 2000), triggering gc and backfill-bloom; maintenance.logBytes, growth of
+ * the logs since the last run (default 1 MiB), triggering log expiry down to
+ * maintenance.reflogEntries entries per reflog (default 1000); and
+ * maintenance.unreachable, unreachable objects the last gc had to keep
+ * (default 500), triggering gc once they are past the grace period.
+ * Setting maintenance.auto to false turns scheduling off.
+ *
+ * Commands and maintenance tasks hold the repository lock while they run.
+ * Maintenance releases it between tasks, so a command waits for at most one.
+ *
+ * @author StrangeMP
+ */
+class Maintenance {
+    private static final File LOCK_FILE = Utils.join(Repository.COMMON_DIR, "lock");
+    private static final File RUN_LOCK_FILE = Utils.join(Repository.COMMON_DIR, "maintenance.lock");
+    private static final File STATE_FILE = Utils.join(Repository.COMMON_DIR, "maintenance");
+    private static final File LOG_FILE = Utils.join(Repository.COMMON_DIR, "maintenance.log");
+    private static final long GC_GRACE_MILLIS = 14L * 24 * 60 * 60 * 1000;
+
+    /**
+     * Blocks until this process holds the repository lock, which is released
+     * when the returned channel is closed or the process exits.
+     */
+    static FileChannel lock() {
+        try {
+            FileChannel channel = FileChannel.open(LOCK_FILE.toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            channel.lock();
+            return channel;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Starts a detached maintenance process if a threshold is exceeded. The
+     * checks only count directory entries and read file lengths.
+     */
+    static void schedule() {
+        if (!Boolean.parseBoolean(Config.get("maintenance.auto", "true")) || !due(readState())) {
+            return;
+        }
+        String java = Utils.join(new File(System.getProperty("java.home")), "bin", "java").getPath();
+        ProcessBuilder pb = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                "gitlet.Main", "maintenance", "run", "--auto");
+        pb.directory(Repository.CWD);
+        pb.redirectInput(ProcessBuilder.Redirect.from(new File("/dev/null")));
+        pb.redirectOutput(ProcessBuilder.Redirect.appendTo(LOG_FILE));
+        pb.redirectErrorStream(true);
+        try {
+            pb.start();
+        } catch (IOException excp) {
+            // Maintenance is retried after the next command.
+        }
+    }
+
+    /**
+     * Handles maintenance run [--auto], which runs every maintenance task, or
+     * with --auto only those whose thresholds are exceeded. Only one
+     * maintenance process runs at a time; others return at once.
+     *
+     * @param args the arguments passed to the maintenance command.
+     */
+    static void command(String[] args) {
+        boolean auto = args.length == 3;
+        if (!args[1].equals("run") || (auto && !args[2].equals("--auto"))) {
+            Main.exit("Incorrect operands.");
+        }
+        try (FileChannel channel = FileChannel.open(RUN_LOCK_FILE.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+             FileLock running = channel.tryLock()) {
+            if (running == null) {
+                return;
+            }
+            run(auto);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    private static void run(boolean auto) {
+        Properties state = readState();
+        if (!auto || gcDue(state)) {
+            withLock(() -> {
+                Repository repo = Repository.load();
+                long unreachable = repo.gc(new String[]{"gc"});
+                repo.save();
+                state.setProperty("unreachable", Long.toString(unreachable));
+                state.setProperty("lastGc", Long.toString(System.currentTimeMillis()));
+            });
+            withLock(Repository::backfillBloom);
+            state.setProperty("objects", Long.toString(Repository.objectCount()));
+        }
+        if (!auto || logsDue(state)) {
+            withLock(() -> Repository.expireLogs(
+                    Config.getLong("maintenance.reflogEntries", 1000)));
+            state.setProperty("logBytes", Long.toString(Repository.logBytes()));
+        }
+        writeState(state);
+    }
+
+    /**
+     * Runs TASK holding the repository lock.
+     */
+    private static void withLock(Runnable task) {
+        FileChannel lock = lock();
+        try {
+            task.run();
+        } finally {
+            try {
+                lock.close();
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+    }
+
+    private static boolean due(Properties state) {
+        return gcDue(state) || logsDue(state);
+    }
+
+    private static boolean gcDue(Properties state) {
+        long growth = Repository.objectCount() - count(state, "objects");
+        if (growth > Config.getLong("maintenance.looseObjects", 2000)) {
+            return true;
+        }
+        return count(state, "unreachable") > Config.getLong("maintenance.unreachable", 500)
+                && System.currentTimeMillis() - count(state, "lastGc") > GC_GRACE_MILLIS;
+    }
+
+    private static boolean logsDue(Properties state) {
+        return Repository.logBytes() - count(state, "logBytes")
+                > Config.getLong("maintenance.logBytes", 1 << 20);
+    }
+
+    private static long count(Properties state, String key) {
+        return Long.parseLong(state.getProperty(key, "0"));
+    }
+
+    private static Properties readState() {
+        Properties state = new Properties();
+        if (STATE_FILE.isFile()) {
+            try (Reader in = new FileReader(STATE_FILE)) {
+                state.load(in);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+        return state;
+    }
+
+    private static void writeState(Properties state) {
+        try (Writer out = new FileWriter(STATE_FILE)) {
+            state.store(out, null);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+}
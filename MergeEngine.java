@@ -0,0 +1,222 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Three-way merge of commit contents computed from objects alone. Paths are
+ * classified by comparing blob ids, so unchanged files are never read; only
+ * paths changed on both sides are merged line by line, each streamed into
+ * the object store and hashed as it is written. A path where any version is
+ * a large object, binary, or too big to map is not merged: ours is kept, or
+ * theirs if ours deleted it, and the merge is reported as conflicting.
+ * Nothing is written to the working directory until the result is taken
+ * with {@link #result()}; a merged blob left unused is removed by gc. In a
+ * partial clone, the constructor first fetches the missing versions of
+ * paths to be merged into the object store.
+ *
+ * @author StrangeMP
+ */
+class MergeEngine {
+    private final Tree base;
+    private final Tree ours;
+    private final Tree theirs;
+    /** Result of paths whose version is taken from one side or deleted. */
+    private final Map<File, Blob> taken = new HashMap<>();
+    /** Results of paths merged line by line. */
+    private final Map<File, Blob> merged = new HashMap<>();
+    private boolean clean = true;
+
+    /**
+     * Merges the contents OURS and THEIRS against their common ancestor BASE.
+     * Every path is classified in a single walk over the three sorted trees.
+     */
+    MergeEngine(Tree base, Tree ours, Tree theirs) {
+        this.base = base;
+        this.ours = ours;
+        this.theirs = theirs;
+        // Paths to merge line by line, with the paths of the base, ours and
+        // theirs versions, which differ for renamed files.
+        Map<File, File[]> toMerge = new LinkedHashMap<>();
+        Map<File, Blob> deletedByOurs = new HashMap<>();
+        Map<File, Blob> addedByOurs = new HashMap<>();
+        Map<File, Blob> deletedByTheirs = new HashMap<>();
+        Map<File, Blob> addedByTheirs = new HashMap<>();
+        Tree.walk(base, ours, theirs, (f, o, a, b) -> {
+            if (same(a, b) || same(o, b)) {
+                taken.put(f, a);
+            } else if (same(o, a)) {
+                taken.put(f, b);
+            } else {
+                toMerge.put(f, new File[]{f, f, f});
+            }
+            // Rename candidates: paths one side deleted that the other still
+            // tracks, and paths one side added that the other does not.
+            if (o != null && a == null && b != null) {
+                deletedByOurs.put(f, o);
+            } else if (o == null && a != null && b == null) {
+                addedByOurs.put(f, a);
+            } else if (o != null && a != null && b == null) {
+                deletedByTheirs.put(f, o);
+            } else if (o == null && a == null && b != null) {
+                addedByTheirs.put(f, b);
+            }
+        });
+
+        // A file renamed on one side merges with the other side's edits
+        // of the original path, and the result is kept under the new name.
+        for (Map.Entry<File, File> rename
+                : Renames.detect(deletedByOurs, addedByOurs).entrySet()) {
+            File from = rename.getKey();
+            File to = rename.getValue();
+            toMerge.remove(from);
+            taken.put(from, null);
+            if (same(base.get(from), theirs.get(from))) {
+                taken.put(to, ours.get(to));
+            } else {
+                taken.remove(to);
+                toMerge.put(to, new File[]{from, to, from});
+            }
+        }
+        for (Map.Entry<File, File> rename
+                : Renames.detect(deletedByTheirs, addedByTheirs).entrySet()) {
+            File from = rename.getKey();
+            File to = rename.getValue();
+            toMerge.remove(from);
+            taken.put(from, null);
+            if (same(base.get(from), ours.get(from))) {
+                taken.put(to, theirs.get(to));
+            } else {
+                taken.remove(to);
+                toMerge.put(to, new File[]{from, from, to});
+            }
+        }
+
+        List<Blob> needed = new ArrayList<>();
+        for (File[] m : toMerge.values()) {
+            needed.add(base.get(m[0]));
+            needed.add(ours.get(m[1]));
+            needed.add(theirs.get(m[2]));
+        }
+        needed.removeIf(b -> b == null || b.large);
+        Repository.fetchMissingBlobs(needed);
+        for (Map.Entry<File, File[]> entry : toMerge.entrySet()) {
+            File[] m = entry.getValue();
+            merge(entry.getKey(), base.get(m[0]), ours.get(m[1]), theirs.get(m[2]));
+        }
+    }
+
+    /**
+     * Merges the three versions of a file into the contents of path F.
+     */
+    private void merge(File f, Blob o, Blob a, Blob b) {
+        if (!mergeable(o) || !mergeable(a) || !mergeable(b)) {
+            clean = false;
+            taken.put(f, a != null ? a : b);
+            return;
+        }
+        MessageDigest md = HashAlgorithm.current().newDigest();
+        Path relative = Repository.CWD.toPath().relativize(f.getAbsoluteFile().toPath());
+        md.update(relative.toString().getBytes(StandardCharsets.UTF_8));
+        try {
+            Path tmp = Files.createTempFile(Repository.OBJECT_DIR.toPath(), "merge", ".tmp");
+            try {
+                try (OutputStream out = new BufferedOutputStream(
+                        new DigestOutputStream(Files.newOutputStream(tmp), md))) {
+                    clean &= LineMerge.merge(contents(o), contents(a), contents(b), out);
+                }
+                String sha1 = HashAlgorithm.hex(md.digest());
+                Blob current = ours.get(f);
+                if (current != null && current.sha1().equals(sha1)) {
+                    taken.put(f, current);
+                } else {
+                    merged.put(f, new Blob(f, sha1, tmp));
+                }
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * @return true if B is absent or a text file small enough to merge line
+     * by line: not a large object, not over 2 GB, and with no NUL byte in
+     * its first 8000 bytes.
+     */
+    private static boolean mergeable(Blob b) {
+        if (b == null) {
+            return true;
+        }
+        if (b.large || b.contents().length() > Integer.MAX_VALUE) {
+            return false;
+        }
+        try (InputStream in = Files.newInputStream(b.contents().toPath())) {
+            byte[] head = in.readNBytes(8000);
+            for (byte x : head) {
+                if (x == 0) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * @return true if every path merged without a conflict.
+     */
+    boolean isClean() {
+        return clean;
+    }
+
+    /**
+     * @return the paths whose version in the result differs from OURS.
+     */
+    Set<File> changedPaths() {
+        Set<File> changed = new HashSet<>(merged.keySet());
+        for (Map.Entry<File, Blob> entry : taken.entrySet()) {
+            if (!same(entry.getValue(), ours.get(entry.getKey()))) {
+                changed.add(entry.getKey());
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * @return the merged version of every path in CHANGEDPATHS, null for
+     * a deleted path.
+     */
+    Map<File, Blob> result() {
+        Map<File, Blob> result = new HashMap<>();
+        for (File f : changedPaths()) {
+            result.put(f, merged.containsKey(f) ? merged.get(f) : taken.get(f));
+        }
+        return result;
+    }
+
+    private static boolean same(Blob x, Blob y) {
+        return x == null ? y == null : x.sameAs(y);
+    }
+
+    private static File contents(Blob b) {
+        return b == null ? null : b.contents();
+    }
+}
@@ -0,0 +1,94 @@
+package gitlet;
+
+import java.lang.ref.SoftReference;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A size-bounded LRU cache of deserialized objects keyed by binary object id.
+ * Values are held through soft references, so the garbage collector may
+ * also drop them under memory pressure before the capacity is reached.
+ *
+ * @author StrangeMP
+ */
+class ObjectCache<V> {
+    private final String name;
+    private final LinkedHashMap<ObjectId, SoftReference<V>> map;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * @param name     name shown in the statistics.
+     * @param capacity maximum number of objects held.
+     */
+    ObjectCache(String name, int capacity) {
+        this.name = name;
+        this.map = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ObjectId, SoftReference<V>> eldest) {
+                if (size() > capacity) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @return the cached object with id ID, null if it is not cached.
+     */
+    synchronized V get(String id) {
+        return get(ObjectId.of(id));
+    }
+
+    synchronized V get(ObjectId key) {
+        SoftReference<V> ref = map.get(key);
+        V value = ref == null ? null : ref.get();
+        if (value != null) {
+            hits++;
+            return value;
+        }
+        if (ref != null) {
+            // cleared by the garbage collector
+            map.remove(key);
+            evictions++;
+        }
+        misses++;
+        return null;
+    }
+
+    synchronized void put(String id, V value) {
+        put(ObjectId.of(id), value);
+    }
+
+    synchronized void put(ObjectId id, V value) {
+        map.put(id, new SoftReference<>(value));
+    }
+
+    /**
+     * @return the cached object with id ID if there is one, otherwise caches
+     * and returns VALUE.
+     */
+    synchronized V intern(ObjectId id, V value) {
+        V cached = get(id);
+        if (cached != null) {
+            return cached;
+        }
+        put(id, value);
+        return value;
+    }
+
+    synchronized void remove(String id) {
+        map.remove(ObjectId.of(id));
+    }
+
+    /**
+     * @return a one-line summary of the hit, miss and eviction counters.
+     */
+    synchronized String stats() {
+        return String.format("%s cache: %d entries, %d hits, %d misses, %d evictions",
+                name, map.size(), hits, misses, evictions);
+    }
+}
@@ -0,0 +1,59 @@
+package gitlet;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Binary form of a hexadecimal object id, half the size of the String form.
+ *
+ * @author StrangeMP
+ */
+final class ObjectId implements Serializable, Comparable<ObjectId> {
+    private static final long serialVersionUID = -4511442421667436289L;
+
+    private final byte[] bytes;
+    private final int hash;
+
+    private ObjectId(byte[] bytes) {
+        this.bytes = bytes;
+        this.hash = Arrays.hashCode(bytes);
+    }
+
+    /**
+     * @param hex an id as a string of hexadecimal digits.
+     * @return the binary id.
+     */
+    static ObjectId of(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) (Character.digit(hex.charAt(2 * i), 16) << 4
+                    | Character.digit(hex.charAt(2 * i + 1), 16));
+        }
+        return new ObjectId(bytes);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof ObjectId && Arrays.equals(bytes, ((ObjectId) o).bytes);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public int compareTo(ObjectId o) {
+        return Arrays.compareUnsigned(bytes, o.bytes);
+    }
+
+    @Override
+    public String toString() {
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[2 * i] = Character.forDigit((bytes[i] >> 4) & 0xf, 16);
+            hex[2 * i + 1] = Character.forDigit(bytes[i] & 0xf, 16);
+        }
+        return new String(hex);
+    }
+}
@@ -0,0 +1,250 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Predicate;
+
+/**
+ * A stream of commit and blob objects transferred between repositories as
+ * one file. Blobs come first and commits follow oldest first, so a reader
+ * never installs a commit before the objects it refers to. Each blob entry
+ * carries the path its id was computed from, so that the reader can check
+ * the contents against the id.
+ *
+ * @author StrangeMP
+ */
+class Pack {
+    private static final String MAGIC = "GITLETPACK 2";
+    private static final byte END = 0;
+    private static final byte COMMIT = 1;
+    private static final byte BLOB = 2;
+    private static final int BUFFER_SIZE = 1 << 20;
+    /** Longest large-object pointer file, see Blob. */
+    private static final int MAX_POINTER_SIZE = 1024;
+
+    /**
+     * Writes the commits COMMITIDS, oldest first, from the repository whose
+     * .gitlet directory is SOURCE to OUT, together with every blob they
+     * track for which HASBLOB is false.
+     */
+    static void write(OutputStream out, File source, List<String> commitIds,
+                      Predicate<String> hasBlob) throws IOException {
+        Map<String, Blob> blobs = new LinkedHashMap<>();
+        for (String id : commitIds) {
+            Commit commit = Utils.readObject(commitFile(source, id), Commit.class);
+            for (Blob b : commit.content.values()) {
+                if (!hasBlob.test(b.sha1())) {
+                    blobs.putIfAbsent(b.sha1(), b);
+                }
+            }
+        }
+        write(out, source, blobs.values(), commitIds);
+    }
+
+    /**
+     * Writes the blobs BLOBS and then the commits COMMITIDS, oldest first,
+     * from the repository whose .gitlet directory is SOURCE to OUT.
+     */
+    static void write(OutputStream out, File source, Collection<Blob> blobs,
+                      List<String> commitIds) throws IOException {
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out, BUFFER_SIZE));
+        data.writeUTF(MAGIC);
+        for (Blob b : blobs) {
+            data.writeByte(BLOB);
+            data.writeUTF(b.sha1());
+            data.writeUTF(b.relativePath());
+            writeContents(data, blobFile(source, b.sha1()));
+        }
+        for (String id : commitIds) {
+            data.writeByte(COMMIT);
+            data.writeUTF(id);
+            writeContents(data, commitFile(source, id));
+        }
+        data.writeByte(END);
+        data.flush();
+    }
+
+    private static void writeContents(DataOutputStream data, File f) throws IOException {
+        data.writeLong(f.length());
+        Files.copy(f.toPath(), data);
+    }
+
+    /** Writes a pack to the stream it is given. */
+    interface Writer {
+        void write(OutputStream out) throws IOException;
+    }
+
+    /**
+     * Installs into the repository whose .gitlet directory is TARGET the
+     * pack WRITER writes, reading it as it is written by another thread, so
+     * that the pack is never stored whole. Object files written are added to
+     * CREATED.
+     *
+     * @return the ids of the commits installed, oldest first.
+     */
+    static List<String> stream(Writer writer, File target, List<File> created)
+            throws IOException {
+        PipedInputStream in = new PipedInputStream(BUFFER_SIZE);
+        PipedOutputStream out = new PipedOutputStream(in);
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        Thread sender = new Thread(() -> {
+            try (out) {
+                writer.write(out);
+            } catch (IOException | RuntimeException excp) {
+                failure.set(excp);
+            }
+        });
+        sender.start();
+        try (in) {
+            return read(new DataInputStream(new BufferedInputStream(in, BUFFER_SIZE)),
+                    target, created);
+        } catch (IOException excp) {
+            // A pack cut short by a failed writer is reported as that failure.
+            join(sender);
+            if (excp instanceof EOFException && failure.get() != null) {
+                throw new IOException(failure.get().getMessage());
+            }
+            throw excp;
+        } finally {
+            // Closing IN makes a writer still running fail and return.
+            join(sender);
+        }
+    }
+
+    private static void join(Thread t) throws IOException {
+        try {
+            t.join();
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw new IOException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Reads a pack from DATA, without reading past its end, and installs its
+     * objects into the repository whose .gitlet directory is TARGET, adding
+     * every object file it writes to CREATED. Each object is written to a
+     * temporary file and renamed into place once complete. The pack may
+     * come from an untrusted source: ids must have the form of ids of the
+     * current object format, every object must match its id, and objects
+     * TARGET already has are skipped rather than replaced.
+     *
+     * @return the ids of the commits installed, oldest first.
+     */
+    static List<String> read(DataInputStream data, File target, List<File> created)
+            throws IOException {
+        if (!data.readUTF().equals(MAGIC)) {
+            throw Utils.error("Not a gitlet pack.");
+        }
+        HashAlgorithm format = HashAlgorithm.current();
+        List<String> commits = new ArrayList<>();
+        byte[] buf = new byte[BUFFER_SIZE];
+        for (byte type = data.readByte(); type != END; type = data.readByte()) {
+            if (type != COMMIT && type != BLOB) {
+                throw new IOException("Unknown object type in pack.");
+            }
+            String id = data.readUTF();
+            if (!format.isId(id)) {
+                throw new IOException("Invalid object id in pack.");
+            }
+            String path = type == BLOB ? data.readUTF() : null;
+            long remaining = data.readLong();
+            File dest = type == COMMIT ? commitFile(target, id) : blobFile(target, id);
+            if (dest.exists()) {
+                // Read rather than skipped, so that a digest of the bundle sees it.
+                copy(data, remaining, buf, OutputStream.nullOutputStream(), null);
+                continue;
+            }
+            // A blob id hashes the path, with local separators, and the contents.
+            MessageDigest md = format.newDigest();
+            if (path != null) {
+                md.update(path.replace('/', File.separatorChar).getBytes(StandardCharsets.UTF_8));
+            }
+            File tmp = new File(dest.getPath() + ".tmp");
+            try {
+                try (OutputStream obj = Files.newOutputStream(tmp.toPath())) {
+                    copy(data, remaining, buf, obj, md);
+                }
+                boolean matches = type == COMMIT ? isCommit(tmp, id)
+                        : HashAlgorithm.hex(md.digest()).equals(id) || isPointer(tmp, id);
+                if (!matches) {
+                    throw new IOException("Object " + id + " in pack does not match its id.");
+                }
+                Files.move(tmp.toPath(), dest.toPath());
+            } finally {
+                tmp.delete();
+            }
+            created.add(dest);
+            if (type == COMMIT) {
+                commits.add(id);
+            }
+        }
+        return commits;
+    }
+
+    /**
+     * Copies the next LENGTH bytes of DATA to OUT through BUF, adding them
+     * to MD unless it is null.
+     */
+    private static void copy(DataInputStream data, long length, byte[] buf, OutputStream out,
+                             MessageDigest md) throws IOException {
+        for (long remaining = length; remaining > 0; ) {
+            int n = data.read(buf, 0, (int) Math.min(buf.length, remaining));
+            if (n < 0) {
+                throw new EOFException("Truncated pack.");
+            }
+            if (md != null) {
+                md.update(buf, 0, n);
+            }
+            out.write(buf, 0, n);
+            remaining -= n;
+        }
+    }
+
+    /**
+     * @return true if F holds a commit whose id is ID. Commit ids hash the
+     * time stamp in the local time zone of their author, so the recorded id
+     * is compared rather than a recomputed one.
+     */
+    private static boolean isCommit(File f, String id) {
+        try {
+            return id.equals(Utils.readObject(f, Commit.class).sha1);
+        } catch (IllegalArgumentException excp) {
+            return false;
+        }
+    }
+
+    /**
+     * @return true if F is the pointer file of the large blob ID, whose
+     * contents are kept in the large-object store.
+     */
+    private static boolean isPointer(File f, String id) {
+        return f.length() <= MAX_POINTER_SIZE
+                && Utils.readContentsAsString(f).startsWith("gitlet-lfs\noid " + id + "\n");
+    }
+
+    static File commitFile(File gitletDir, String id) {
+        return Utils.join(gitletDir, "objects", "commits", id);
+    }
+
+    static File blobFile(File gitletDir, String id) {
+        return Utils.join(gitletDir, "objects", id);
+    }
+}
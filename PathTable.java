@@ -0,0 +1,47 @@
+package gitlet;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Table of the paths of tracked files, shared by all loaded commits. Each
+ * path is kept once, as one File, and referred to elsewhere by its index.
+ *
+ * @author StrangeMP
+ */
+class PathTable {
+    private static final Map<File, Integer> IDS = new HashMap<>();
+    private static File[] files = new File[1024];
+
+    /**
+     * @return the index of F, adding it to the table if needed.
+     */
+    static synchronized int intern(File f) {
+        Integer id = IDS.get(f);
+        if (id == null) {
+            id = IDS.size();
+            if (id == files.length) {
+                files = Arrays.copyOf(files, id * 2);
+            }
+            files[id] = f;
+            IDS.put(f, id);
+        }
+        return id;
+    }
+
+    /**
+     * @return the index of F, or -1 if F is not in the table.
+     */
+    static synchronized int lookup(File f) {
+        return IDS.getOrDefault(f, -1);
+    }
+
+    /**
+     * @return the path with index ID.
+     */
+    static synchronized File file(int id) {
+        return files[id];
+    }
+}
@@ -0,0 +1,149 @@
+package gitlet;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SplittableRandom;
+
+/**
+ * Rename detection between deleted and added files by content similarity.
+ * Each file is summarized by a MinHash sketch of its set of lines, and
+ * locality-sensitive hashing over bands of the sketch proposes candidate
+ * pairs, so files are not compared all against all.
+ *
+ * @author StrangeMP
+ */
+class Renames {
+    /** Minimum estimated similarity for a pair to count as a rename. */
+    private static final double THRESHOLD = 0.5;
+    private static final int BANDS = 16;
+    private static final int ROWS = 4;
+    private static final int NUM_HASHES = BANDS * ROWS;
+    private static final long[] SEEDS = new SplittableRandom(0x5eed).longs(NUM_HASHES).toArray();
+
+    /**
+     * Pairs files of DELETED with the files of ADDED they were most likely
+     * renamed to. Each file takes part in at most one pair.
+     *
+     * @return mapping each renamed file in DELETED to its new file in ADDED.
+     */
+    static Map<File, File> detect(Map<File, Blob> deleted, Map<File, Blob> added) {
+        Map<File, File> renames = new HashMap<>();
+        if (deleted.isEmpty() || added.isEmpty()) {
+            return renames;
+        }
+        List<Blob> toRead = new ArrayList<>(deleted.values());
+        toRead.addAll(added.values());
+        Repository.fetchMissingBlobs(toRead);
+
+        List<File> newFiles = new ArrayList<>();
+        List<long[]> newSketches = new ArrayList<>();
+        Map<Long, List<Integer>> buckets = new HashMap<>();
+        for (Map.Entry<File, Blob> entry : added.entrySet()) {
+            long[] sketch = sketch(entry.getValue().contents());
+            if (sketch == null) {
+                continue;
+            }
+            int index = newFiles.size();
+            newFiles.add(entry.getKey());
+            newSketches.add(sketch);
+            for (int band = 0; band < BANDS; band++) {
+                buckets.computeIfAbsent(bandKey(sketch, band), k -> new ArrayList<>()).add(index);
+            }
+        }
+
+        List<Object[]> pairs = new ArrayList<>();
+        for (Map.Entry<File, Blob> entry : deleted.entrySet()) {
+            long[] sketch = sketch(entry.getValue().contents());
+            if (sketch == null) {
+                continue;
+            }
+            Set<Integer> candidates = new HashSet<>();
+            for (int band = 0; band < BANDS; band++) {
+                candidates.addAll(buckets.getOrDefault(bandKey(sketch, band), List.of()));
+            }
+            for (int index : candidates) {
+                double similarity = similarity(sketch, newSketches.get(index));
+                if (similarity >= THRESHOLD) {
+                    pairs.add(new Object[]{similarity, entry.getKey(), newFiles.get(index)});
+                }
+            }
+        }
+        pairs.sort((x, y) -> Double.compare((double) y[0], (double) x[0]));
+        Set<File> taken = new HashSet<>();
+        for (Object[] pair : pairs) {
+            File from = (File) pair[1];
+            File to = (File) pair[2];
+            if (!renames.containsKey(from) && taken.add(to)) {
+                renames.put(from, to);
+            }
+        }
+        return renames;
+    }
+
+    /**
+     * @return the MinHash sketch of the set of lines of F, null if F is empty.
+     */
+    private static long[] sketch(File f) {
+        Lines lines = new Lines(f);
+        if (lines.size() == 0) {
+            return null;
+        }
+        long[] mins = new long[NUM_HASHES];
+        Arrays.fill(mins, Long.MAX_VALUE);
+        for (int l = 0; l < lines.size(); l++) {
+            long h = fnv(lines.get(l));
+            for (int i = 0; i < NUM_HASHES; i++) {
+                long v = mix(h ^ SEEDS[i]);
+                if (v < mins[i]) {
+                    mins[i] = v;
+                }
+            }
+        }
+        return mins;
+    }
+
+    /** Estimated Jaccard similarity of the line sets sketched by A and B. */
+    private static double similarity(long[] a, long[] b) {
+        int same = 0;
+        for (int i = 0; i < NUM_HASHES; i++) {
+            if (a[i] == b[i]) {
+                same++;
+            }
+        }
+        return (double) same / NUM_HASHES;
+    }
+
+    private static long bandKey(long[] sketch, int band) {
+        long h = band;
+        for (int i = band * ROWS; i < (band + 1) * ROWS; i++) {
+            h = mix(h * 31 + sketch[i]);
+        }
+        return h;
+    }
+
+    private static long fnv(String line) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : line.getBytes(StandardCharsets.ISO_8859_1)) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+
+    /** The 64-bit finalizer of MurmurHash3. */
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -1,10 +1,21 @@
 package gitlet;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.nio.file.StandardCopyOption;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
 
 import static gitlet.Utils.*;
 
@@ -23,51 +34,166 @@ public class Repository implements Serializable {
      * The .gitlet directory.
      */
     public static final File GITLET_DIR = join(CWD, ".gitlet");
-    public static final File OBJECT_DIR = join(GITLET_DIR, "objects");
-    private static final File LOG_DIR = join(GITLET_DIR, "logs");
+    /**
+     * The .gitlet directory holding the objects, refs and logs shared by all
+     * working trees of the repository. A linked working tree names it in its
+     * commondir file and keeps only its HEAD, reflog and stage in GITLET_DIR.
+     */
+    public static final File COMMON_DIR = commonDir(GITLET_DIR);
+    public static final File OBJECT_DIR = join(COMMON_DIR, "objects");
+    /**
+     * Each commit is stored in its own file, named by its id, in this directory.
+     */
+    private static final File COMMIT_DIR = join(OBJECT_DIR, "commits");
+    /**
+     * Bloom filters of the paths each commit changed, named by commit id.
+     */
+    private static final File BLOOM_DIR = join(OBJECT_DIR, "bloom");
+    /**
+     * Cached blame results, one file per (commit, blob) pair.
+     */
+    static final File BLAME_DIR = join(COMMON_DIR, "blame");
+    private static final File LOG_DIR = join(COMMON_DIR, "logs");
     private static final File BRANCH_LOG_DIR = join(LOG_DIR, "refs", "heads");
-    private static final File CORE_FILE = join(OBJECT_DIR, "CORE");
+    private static final File REFS_DIR = join(COMMON_DIR, "refs", "heads");
+    /**
+     * Branches fetched from remotes, as refs/remotes/[remote name]/[branch name].
+     */
+    private static final File REMOTE_REFS_DIR = join(COMMON_DIR, "refs", "remotes");
+    private static final File CORE_FILE = join(GITLET_DIR, "objects", "CORE");
     private static final File HEAD_FILE = join(GITLET_DIR, "HEAD");
-    public static final File HEAD_LOG_FILE = join(LOG_DIR, "HEAD");
+    public static final File HEAD_LOG_FILE = join(GITLET_DIR, "logs", "HEAD");
     private static final File GLOBAL_LOG_FILE = join(LOG_DIR, "GLOBAL");
-
     /**
-     * Mapping branch name to head of branches.
+     * Linked working trees, one file per tree holding its .gitlet directory.
      */
-    TreeMap<String, Commit> branches;
-    Commit _head;
-    String currentBranchName;
+    private static final File WORKTREES_DIR = join(COMMON_DIR, "worktrees");
 
+    transient Commit _head;
     /**
-     * Mapping File to its corresponding versions of blobs.
+     * Name of the checked out branch, kept in HEAD_FILE rather than in CORE.
      */
-    HashMap<File, List<Blob>> blobs;
+    transient String currentBranchName;
 
     /**
-     * Mapping staged file to their corresponding StageObject.
+     * Mapping staged file to their corresponding StageObject, null for a
+     * file staged for removal. Files are kept by their PathTable index and
+     * written out as paths relative to the working directory.
      */
-    static class StageType extends HashMap<File, StageObject> {
+    static class StageType extends AbstractMap<File, StageObject> implements Serializable {
+        private transient HashMap<Integer, StageObject> entries = new HashMap<>();
+
         StageType() {
             super();
         }
 
+        @Override
+        public int size() {
+            return entries.size();
+        }
+
+        @Override
+        public boolean containsKey(Object f) {
+            return entries.containsKey(indexOf(f));
+        }
+
+        @Override
+        public StageObject get(Object f) {
+            return entries.get(indexOf(f));
+        }
+
+        @Override
+        public StageObject put(File f, StageObject so) {
+            return entries.put(PathTable.intern(f), so);
+        }
+
+        @Override
+        public StageObject remove(Object f) {
+            return entries.remove(indexOf(f));
+        }
+
         @Override
         public void clear() {
-            for (StageObject so : super.values()) {
+            for (StageObject so : entries.values()) {
                 if (so != null) {
                     so.clear();
                 }
             }
-            super.clear();
+            entries.clear();
+        }
+
+        @Override
+        public Set<Map.Entry<File, StageObject>> entrySet() {
+            return new AbstractSet<>() {
+                @Override
+                public int size() {
+                    return entries.size();
+                }
+
+                @Override
+                public Iterator<Map.Entry<File, StageObject>> iterator() {
+                    Iterator<Map.Entry<Integer, StageObject>> it = entries.entrySet().iterator();
+                    return new Iterator<>() {
+                        @Override
+                        public boolean hasNext() {
+                            return it.hasNext();
+                        }
+
+                        @Override
+                        public Map.Entry<File, StageObject> next() {
+                            Map.Entry<Integer, StageObject> entry = it.next();
+                            return new SimpleImmutableEntry<>(PathTable.file(entry.getKey()),
+                                    entry.getValue());
+                        }
+
+                        @Override
+                        public void remove() {
+                            it.remove();
+                        }
+                    };
+                }
+            };
+        }
+
+        private static int indexOf(Object f) {
+            return f instanceof File ? PathTable.lookup((File) f) : -1;
+        }
+
+        private void writeObject(ObjectOutputStream out) throws IOException {
+            out.defaultWriteObject();
+            out.writeInt(entries.size());
+            for (Map.Entry<Integer, StageObject> entry : entries.entrySet()) {
+                Path relative = CWD.toPath().relativize(
+                        PathTable.file(entry.getKey()).getAbsoluteFile().toPath());
+                out.writeUTF(relative.toString().replace(File.separatorChar, '/'));
+                out.writeObject(entry.getValue());
+            }
+        }
+
+        private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+            in.defaultReadObject();
+            entries = new HashMap<>();
+            for (int n = in.readInt(); n > 0; n--) {
+                File f = join(CWD, in.readUTF());
+                entries.put(PathTable.intern(f), (StageObject) in.readObject());
+            }
         }
     }
 
     StageType stage;
 
     /**
-     * Mapping sha1 to Commits
+     * Commits read from COMMIT_DIR, bounded by the gitlet.cache.commits property.
      */
-    Map<String, Commit> commits;
+    static final ObjectCache<Commit> COMMIT_CACHE =
+            new ObjectCache<>("commit", Integer.getInteger("gitlet.cache.commits", 4096));
+
+    /**
+     * Blobs referenced by loaded commits, shared so that every commit
+     * tracking the same version of a file refers to one instance.
+     */
+    static final ObjectCache<Blob> BLOB_CACHE =
+            new ObjectCache<>("blob", Integer.getInteger("gitlet.cache.blobs", 65536));
 
     public static void copyFile(File from, File to) {
         try {
@@ -81,25 +207,28 @@ public class Repository implements Serializable {
      * Constructor used for repo initialization.
      */
     private Repository() {
+        this("master");
+        commit("initial commit");
+    }
+
+    /**
+     * Creates the layout of a repository without any commit,
+     * with BRANCHNAME as the current branch.
+     */
+    private Repository(String branchName) {
         me = this;
-        branches = new TreeMap<>();
-        blobs = new HashMap<>();
         stage = new StageType();
-        Date date = new Date();
-        currentBranchName = "master";
-        commits = new HashMap<>();
+        currentBranchName = branchName;
         try {
             GITLET_DIR.mkdir();
             OBJECT_DIR.mkdir();
+            COMMIT_DIR.mkdir();
+            BLOOM_DIR.mkdir();
             LOG_DIR.mkdir();
             BRANCH_LOG_DIR.mkdirs();
-            HEAD_FILE.createNewFile();
+            REFS_DIR.mkdirs();
             HEAD_LOG_FILE.createNewFile();
             GLOBAL_LOG_FILE.createNewFile();
-            File masterLog = Utils.join(BRANCH_LOG_DIR, "master");
-            masterLog.createNewFile();
-            commit("initial commit");
-            Utils.writeContents(HEAD_FILE, _head.sha1);
         } catch (IOException ignored) {
             System.exit(0);
         }
@@ -109,21 +238,180 @@ public class Repository implements Serializable {
         return me._head;
     }
 
-    static HashMap<File, List<Blob>> getBlobs() {
-        return me.blobs;
+    /**
+     * Reads the commit with the given full id, going through COMMIT_CACHE.
+     *
+     * @return the commit, null if no commit with that id exists.
+     */
+    static Commit getCommit(String id) {
+        Commit commit = COMMIT_CACHE.get(id);
+        if (commit == null) {
+            File f = Utils.join(COMMIT_DIR, id);
+            if (!f.isFile()) {
+                return null;
+            }
+            commit = Utils.readObject(f, Commit.class);
+            COMMIT_CACHE.put(id, commit);
+        }
+        return commit;
+    }
+
+    private static void putCommit(Commit commit) {
+        Utils.writeObject(Utils.join(COMMIT_DIR, commit.sha1), commit);
+        COMMIT_CACHE.put(commit.sha1, commit);
     }
 
-    static HashMap<File, StageObject> getStage() {
+    static Map<File, StageObject> getStage() {
         return me.stage;
     }
 
-    public static Repository init() {
+    /**
+     * Creates a repository in the working directory. With --hash=[name],
+     * object ids are computed with that hash function, one of sha1 (the
+     * default), sha256 and blake3, for the life of the repository.
+     *
+     * @param args the arguments passed to the init command.
+     */
+    public static Repository init(String[] args) {
         if (GITLET_DIR.exists()) {
             Main.exit(
                     "A Gitlet version-control system already exists in the current directory."
             );
         }
-        return new Repository();
+        HashAlgorithm algorithm = HashAlgorithm.SHA1;
+        if (args.length == 2) {
+            algorithm = args[1].startsWith("--hash=")
+                    ? HashAlgorithm.named(args[1].substring("--hash=".length())) : null;
+            if (algorithm == null) {
+                Main.exit("Incorrect operands.");
+            }
+        }
+        HashAlgorithm.use(algorithm);
+        Repository repo = new Repository();
+        Config.set(HashAlgorithm.CONFIG_KEY, algorithm.toString());
+        return repo;
+    }
+
+    /**
+     * Creates a repository in the working directory as a copy of the one
+     * whose .gitlet directory is ARGS[1], and checks out the remote's
+     * current branch. With --filter=blob:none only commits are copied;
+     * blobs are then fetched from the remote in batches when first needed.
+     *
+     * @param args the arguments passed to the clone command.
+     */
+    public static Repository cloneFrom(String[] args) {
+        if (GITLET_DIR.exists()) {
+            Main.exit(
+                    "A Gitlet version-control system already exists in the current directory."
+            );
+        }
+        boolean partial = false;
+        if (args.length == 3) {
+            if (!args[2].equals("--filter=blob:none")) {
+                Main.exit("Incorrect operands.");
+            }
+            partial = true;
+        }
+        File remote = CWD.toPath().resolve(args[1]).toFile();
+        if (!Utils.join(remote, "HEAD").isFile()) {
+            Main.exit("Remote directory not found.");
+        }
+        String remoteHead = Utils.readContentsAsString(Utils.join(remote, "HEAD"))
+                .substring(HEAD_REF_PREFIX.length());
+        HashAlgorithm algorithm = HashAlgorithm.recordedIn(commonDir(remote));
+        HashAlgorithm.use(algorithm);
+        Repository repo = new Repository(remoteHead);
+        Config.set(HashAlgorithm.CONFIG_KEY, algorithm.toString());
+        Config.set("remote.origin.path", args[1]);
+        if (partial) {
+            Config.set("core.promisor", "origin");
+        }
+        for (String branchName : Utils.plainFilenamesIn(Utils.join(remote, "refs", "heads"))) {
+            String tip = Utils.readContentsAsString(Utils.join(remote, "refs", "heads", branchName));
+            List<String> missing = missingCommits(remote, tip,
+                    id -> Utils.join(COMMIT_DIR, id).exists());
+            transfer(remote, COMMON_DIR, missing, partial);
+            for (String id : missing) {
+                writeBloom(getCommit(id));
+            }
+            File ref = Utils.join(REMOTE_REFS_DIR, "origin", branchName);
+            ref.getParentFile().mkdirs();
+            Utils.writeContents(ref, tip);
+        }
+        repo._head = getCommit(Utils.readContentsAsString(
+                Utils.join(REMOTE_REFS_DIR, "origin", remoteHead)));
+        repo.updateRef(remoteHead, repo._head, "clone: from " + args[1]);
+        repo._head.restore();
+        return repo;
+    }
+
+    /**
+     * In a partial clone, fetches from the promisor remote the contents of
+     * those BLOBS that are missing locally, all in one pack, and the
+     * contents of large blobs missing from the large-object store.
+     */
+    static void fetchMissingBlobs(Collection<Blob> blobs) {
+        String promisor = Config.get("core.promisor", null);
+        if (promisor == null) {
+            return;
+        }
+        Map<String, Blob> missing = new TreeMap<>();
+        List<Blob> large = new ArrayList<>();
+        for (Blob b : blobs) {
+            if (!b.underlying().exists()) {
+                missing.putIfAbsent(b.sha1(), b);
+            }
+            if (b.large) {
+                large.add(b);
+            }
+        }
+        File remote = remoteDir(promisor);
+        copyLargeObjects(remote, COMMON_DIR, large);
+        if (missing.isEmpty()) {
+            return;
+        }
+        List<File> created = new ArrayList<>();
+        try {
+            Pack.stream(out -> Pack.write(out, remote, missing.values(), List.of()),
+                    COMMON_DIR, created);
+        } catch (IOException excp) {
+            for (File f : created) {
+                f.delete();
+            }
+            Main.exit("IOException");
+        }
+    }
+
+    /**
+     * Copies the contents of those large BLOBS that the large-object store
+     * of the repository whose .gitlet directory is TARGET lacks from the
+     * store of SOURCE. Each is written to a temporary file and renamed into
+     * place once complete.
+     */
+    private static void copyLargeObjects(File source, File target, Collection<Blob> blobs) {
+        File from = Blob.largeObjectStore(commonDir(source));
+        File to = Blob.largeObjectStore(commonDir(target));
+        for (Blob b : blobs) {
+            File dest = Utils.join(to, b.sha1());
+            if (!b.large || dest.exists()) {
+                continue;
+            }
+            File stored = Utils.join(from, b.sha1());
+            if (!stored.isFile()) {
+                Main.exit("Contents of " + b.relativePath()
+                        + " are missing from the large-object store.");
+            }
+            to.mkdirs();
+            File tmp = new File(dest.getPath() + ".tmp");
+            try {
+                Files.copy(stored.toPath(), tmp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                Files.move(tmp.toPath(), dest.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException excp) {
+                tmp.delete();
+                Main.exit("IOException");
+            }
+        }
     }
 
     /**
@@ -148,7 +436,7 @@ public class Repository implements Serializable {
                 return;
             }
             // ...and is identical with the version just staged.
-            if (stage.get(stagingFile).blob.sha1.equals(
+            if (stage.get(stagingFile).blob.sha1().equals(
                     sha1OfFile(stagingFile))) {
                 return;
             }
@@ -157,7 +445,7 @@ public class Repository implements Serializable {
             stage.remove(stagingFile);
             // ...but is identical to the version in _head.
             if (_head.content.containsKey(stagingFile)
-                    && _head.content.get(stagingFile).sha1.equals(
+                    && _head.content.get(stagingFile).sha1().equals(
                     sha1OfFile(stagingFile))) {
                 return;
             }
@@ -171,120 +459,1304 @@ public class Repository implements Serializable {
         }
     }
 
-    private void recordLog() {
-        // building log...
-        StringBuilder sb = new StringBuilder();
-        sb.append("===\n");
-        sb.append("commit ").append(_head.sha1).append('\n');
-        if (_head.parents.length > 1) {
-            sb.append("Merge: ");
-            for (int i = 0; i < _head.parents.length; i++) {
-                sb.append(_head.parents[i].sha1, 0, 7);
-                if (i != _head.parents.length - 1) {
-                    sb.append(' ');
-                } else {
-                    sb.append('\n');
+    /**
+     * Stages the files named in ARGS, or every file in the working directory
+     * for ".". The files are read, hashed and stored together by a
+     * StagePipeline; files kept in the large-object store are staged one at
+     * a time as by add [file name].
+     *
+     * @param args the arguments passed to the add command.
+     */
+    public void add(String[] args) {
+        if (args.length == 2 && !args[1].equals(".")) {
+            add(args[1]);
+            return;
+        }
+        List<File> files = new ArrayList<>();
+        if (Arrays.asList(args).contains(".")) {
+            files.addAll(allFilesInCWD());
+        } else {
+            for (int i = 1; i < args.length; i++) {
+                File f = join(CWD, args[i]);
+                if (!f.isFile()) {
+                    Main.exit("File does not exist.");
+                }
+                files.add(f);
+            }
+        }
+        long threshold = Config.getLong("lfs.threshold", 0);
+        List<File> piped = new ArrayList<>();
+        for (File f : files) {
+            if (threshold > 0 && f.length() > threshold) {
+                add(f.getName());
+            } else {
+                piped.add(f);
+            }
+        }
+        for (StagePipeline.Item item : StagePipeline.run(piped)) {
+            add(item.file, item.sha1, item.written);
+        }
+    }
+
+    /**
+     * Stages version SHA1 of STAGINGFILE, already in the object store, as
+     * add [file name] does. WRITTEN tells if the object was just written.
+     */
+    private void add(File stagingFile, String sha1, boolean written) {
+        if (stage.containsKey(stagingFile)) {
+            if (stage.get(stagingFile) == null) {
+                stage.remove(stagingFile);
+                return;
+            }
+            if (stage.get(stagingFile).blob.sha1().equals(sha1)) {
+                return;
+            }
+            stage.remove(stagingFile);
+        }
+        Blob current = _head.content.get(stagingFile);
+        if (current == null || !current.sha1().equals(sha1)) {
+            stage.put(stagingFile, StageObject.of(stagingFile, sha1, written));
+        }
+    }
+
+    private void recordLog() {
+        String logStr = writeCommitLog(LOG_DIR, _head);
+        Utils.writeContents(GLOBAL_LOG_FILE, logStr, Utils.readContentsAsString(GLOBAL_LOG_FILE));
+    }
+
+    /**
+     * Writes the log file of COMMIT into LOGDIR: the id of its first parent
+     * on the first line, followed by its log entry.
+     *
+     * @return the log entry.
+     */
+    private static String writeCommitLog(File logDir, Commit commit) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("===\n");
+        sb.append("commit ").append(commit.sha1).append('\n');
+        if (commit.parents.length > 1) {
+            sb.append("Merge: ");
+            for (int i = 0; i < commit.parents.length; i++) {
+                sb.append(commit.parents[i], 0, 7);
+                if (i != commit.parents.length - 1) {
+                    sb.append(' ');
+                } else {
+                    sb.append('\n');
+                }
+            }
+        }
+        Date date = commit.timeStamp;
+        SimpleDateFormat formatter = new SimpleDateFormat(LOG_DATE_FORMAT, Locale.ENGLISH);
+        sb.append("Date: ").append(formatter.format(date)).append('\n');
+        sb.append(commit.message).append("\n\n");
+        String logStr = sb.toString();
+        Utils.writeContents(Utils.join(logDir, commit.sha1),
+                (commit.parents.length == 0
+                        ? nullId() + "\n" : commit.parents[0] + "\n"), logStr);
+        return logStr;
+    }
+
+    private static final String LOG_DATE_FORMAT = "EEE MMM d HH:mm:ss yyyy Z";
+
+    private static final String HEAD_REF_PREFIX = "ref: refs/heads/";
+
+    /**
+     * @return the id standing for no commit, all zeros, as long as an id
+     * under the repository's hash function.
+     */
+    private static String nullId() {
+        return "0".repeat(HashAlgorithm.current().hexLength());
+    }
+
+    public void commit(String msg) {
+        commit(msg, new Commit[]{_head});
+    }
+
+    private void commit(String msg, Commit[] parents) {
+        if (stage.isEmpty() && parents.length == 1 && parents[0] != null) {
+            Main.exit("No changes added to the commit.");
+        }
+        if (msg.isEmpty()) {
+            Main.exit("Please enter a commit message.");
+        }
+        Commit commit = new Commit(msg, parents);
+        if (Utils.join(COMMIT_DIR, commit.sha1).exists()) {
+            Main.exit("A commit with that id already exists.");
+        }
+        _head = commit;
+        updateRef(currentBranchName, _head, "commit: " + msg);
+        recordLog();
+        putCommit(_head);
+        writeBloom(_head);
+    }
+
+    /**
+     * Prints the history of the head commit, following first parents.
+     * Entries are read one at a time from the per-commit log files and
+     * printed as they are found, so the cost is proportional to the number
+     * of entries shown rather than to the length of the history.
+     * Accepts the options -n [count], --skip [count] and --since [yyyy-MM-dd],
+     * and -- [file name] to show only commits that changed that file.
+     *
+     * @param args the arguments passed to the log command.
+     */
+    public static void log(String[] args) {
+        int limit = Integer.MAX_VALUE;
+        int skip = 0;
+        Date since = null;
+        String path = null;
+        try {
+            for (int i = 1; i < args.length; i += 2) {
+                switch (args[i]) {
+                    case "-n":
+                        limit = Integer.parseInt(args[i + 1]);
+                        break;
+                    case "--skip":
+                        skip = Integer.parseInt(args[i + 1]);
+                        break;
+                    case "--since":
+                        since = new SimpleDateFormat("yyyy-MM-dd", Locale.ENGLISH)
+                                .parse(args[i + 1]);
+                        break;
+                    case "--":
+                        path = args[i + 1];
+                        break;
+                    default:
+                        Main.exit("Incorrect operands.");
+                }
+            }
+        } catch (NumberFormatException | java.text.ParseException excp) {
+            Main.exit("Incorrect operands.");
+        }
+        String id = readRef(headBranch());
+        while (limit > 0 && !id.equals(nullId())) {
+            String record = Utils.readContentsAsString(Utils.join(LOG_DIR, id));
+            String entry = record.substring(nullId().length() + 1);
+            if (since != null && logDate(entry).before(since)) {
+                break;
+            }
+            if (path == null || changes(id, path)) {
+                if (skip > 0) {
+                    skip--;
+                } else {
+                    System.out.print(entry);
+                    limit--;
+                }
+            }
+            id = record.substring(0, nullId().length());
+        }
+    }
+
+    /**
+     * Tells whether the commit with id ID changed the file named PATH relative
+     * to its first parent. The commit's Bloom filter is consulted first, so
+     * commits that certainly did not touch PATH are never loaded.
+     */
+    private static boolean changes(String id, String path) {
+        File bloom = Utils.join(BLOOM_DIR, id);
+        if (bloom.isFile()
+                && !Utils.readObject(bloom, BloomFilter.class).mightContain(path)) {
+            return false;
+        }
+        Commit commit = getCommit(id);
+        File f = Utils.join(CWD, path);
+        Blob now = commit.content.get(f);
+        Blob before = commit.parents.length == 0
+                ? null : getCommit(commit.parents[0]).content.get(f);
+        if (now == null || before == null) {
+            return now != before;
+        }
+        return !now.sameAs(before);
+    }
+
+    /**
+     * @return the names of the files COMMIT added, modified or removed
+     * relative to its first parent.
+     */
+    private static Set<String> changedPaths(Commit commit) {
+        Map<File, Blob> before = commit.parents.length == 0
+                ? new HashMap<>() : getCommit(commit.parents[0]).content;
+        Set<String> changed = new HashSet<>();
+        for (Map.Entry<File, Blob> entry : commit.content.entrySet()) {
+            Blob old = before.get(entry.getKey());
+            if (!entry.getValue().sameAs(old)) {
+                changed.add(entry.getKey().getName());
+            }
+        }
+        for (File f : before.keySet()) {
+            if (!commit.content.containsKey(f)) {
+                changed.add(f.getName());
+            }
+        }
+        return changed;
+    }
+
+    private static void writeBloom(Commit commit) {
+        Utils.writeObject(Utils.join(BLOOM_DIR, commit.sha1),
+                new BloomFilter(changedPaths(commit)));
+    }
+
+    /**
+     * Computes the changed-path Bloom filter of every commit that lacks one,
+     * such as commits made before filters were recorded.
+     */
+    public static void backfillBloom() {
+        BLOOM_DIR.mkdir();
+        int written = 0;
+        for (String id : Utils.plainFilenamesIn(COMMIT_DIR)) {
+            if (!Utils.join(BLOOM_DIR, id).exists()) {
+                writeBloom(getCommit(id));
+                written++;
+            }
+        }
+        System.out.println("Wrote " + written + " Bloom filters.");
+    }
+
+    /**
+     * @return the date recorded in the log entry ENTRY.
+     */
+    private static Date logDate(String entry) {
+        int start = entry.indexOf("Date: ") + "Date: ".length();
+        String date = entry.substring(start, entry.indexOf('\n', start));
+        try {
+            return new SimpleDateFormat(LOG_DATE_FORMAT, Locale.ENGLISH).parse(date);
+        } catch (java.text.ParseException excp) {
+            throw error("Corrupted log entry.");
+        }
+    }
+
+    public static void globalLog() {
+        System.out.println(Utils.readContentsAsString(GLOBAL_LOG_FILE));
+    }
+
+    private void rm(File tobeRm) {
+        if (!stage.containsKey(tobeRm) && !_head.content.containsKey(tobeRm)) {
+            Main.exit("No reason to remove the file.");
+        }
+        // Unstage the file if it is currently staged for addition.
+        stage.remove(tobeRm);
+        // If the file is tracked in the current commit
+        if (_head.content.containsKey(tobeRm)) {
+            // stage it for removal,
+            stage.put(tobeRm, null);
+            // and remove the file from the working directory if the user has not already done so.
+            if (tobeRm.exists()) {
+                Utils.restrictedDelete(tobeRm);
+            }
+        }
+    }
+
+    public void rm(String fileName) {
+        File tobeRm = Utils.join(CWD, fileName);
+        rm(tobeRm);
+    }
+
+    public void save() {
+        saveHead();
+        Utils.writeObject(CORE_FILE, this);
+    }
+
+    /**
+     * Writes HEAD alone, for commands that read the current branch from
+     * disk while this repository holds unsaved changes.
+     */
+    void saveHead() {
+        Utils.writeContents(HEAD_FILE, HEAD_REF_PREFIX + currentBranchName);
+    }
+
+    /**
+     * @return the state of this repository, from which restore recreates it
+     * after a command fails part way. Files already written are not undone.
+     */
+    byte[] snapshot() {
+        return Utils.serialize(new Object[]{this, currentBranchName, _head.sha1});
+    }
+
+    /**
+     * Makes the repository recorded in SNAPSHOT the loaded one.
+     *
+     * @return that repository.
+     */
+    static Repository restore(byte[] snapshot) {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(snapshot))) {
+            Object[] state = (Object[]) in.readObject();
+            me = (Repository) state[0];
+            me.currentBranchName = (String) state[1];
+            me._head = getCommit((String) state[2]);
+            return me;
+        } catch (IOException | ClassNotFoundException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    public static List<String> find(String keyword) {
+        List<String> ids = new ArrayList<>();
+        for (String id : Utils.plainFilenamesIn(COMMIT_DIR)) {
+            Commit cmt = getCommit(id);
+            if (cmt.message.contains(keyword)) {
+                ids.add(cmt.sha1);
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Prints the changes between two snapshots as unified diffs.
+     * With no operands compares the working directory against the stage,
+     * with --cached compares the stage against the head commit, and with two
+     * commit ids compares those commits. Paths whose blob ids are equal are
+     * skipped without reading their contents.
+     *
+     * @param args the arguments passed to the diff command.
+     */
+    public void diff(String[] args) {
+        Map<File, Blob> index = stagedContent();
+        if (args.length == 1) {
+            diffWorkingTree(index);
+        } else if (args.length == 2) {
+            if (!args[1].equals("--cached")) {
+                Main.exit("Incorrect operands.");
+            }
+            diffContents(_head.content, index);
+        } else {
+            Commit from = getCommitByShortId(args[1]);
+            Commit to = getCommitByShortId(args[2]);
+            if (from == null || to == null) {
+                Main.exit("No commit with that id exists.");
+                return;
+            }
+            diffContents(from.content, to.content);
+        }
+    }
+
+    /**
+     * @return the content of _head with the staged additions and removals applied.
+     */
+    private Map<File, Blob> stagedContent() {
+        Map<File, Blob> index = new HashMap<>(_head.content);
+        for (Map.Entry<File, StageObject> entry : stage.entrySet()) {
+            if (entry.getValue() == null) {
+                index.remove(entry.getKey());
+            } else {
+                index.put(entry.getKey(), entry.getValue().blob);
+            }
+        }
+        return index;
+    }
+
+    private static void diffContents(Map<File, Blob> from, Map<File, Blob> to) {
+        List<Blob> changed = new ArrayList<>();
+        for (Map.Entry<File, Blob> entry : from.entrySet()) {
+            Blob other = to.get(entry.getKey());
+            if (!entry.getValue().sameAs(other)) {
+                changed.add(entry.getValue());
+                if (other != null) {
+                    changed.add(other);
+                }
+            }
+        }
+        for (Map.Entry<File, Blob> entry : to.entrySet()) {
+            if (!from.containsKey(entry.getKey())) {
+                changed.add(entry.getValue());
+            }
+        }
+        fetchMissingBlobs(changed);
+        Map<File, File> renames = Renames.detect(absentFrom(from, to), absentFrom(to, from));
+        TreeMap<String, File> paths = new TreeMap<>();
+        for (File f : from.keySet()) {
+            paths.put(f.getName(), f);
+        }
+        for (File f : to.keySet()) {
+            paths.put(f.getName(), f);
+        }
+        paths.values().removeAll(renames.values());
+        for (Map.Entry<String, File> entry : paths.entrySet()) {
+            Blob oldBlob = from.get(entry.getValue());
+            Blob newBlob = to.get(entry.getValue());
+            File renamedTo = renames.get(entry.getValue());
+            if (renamedTo != null) {
+                newBlob = to.get(renamedTo);
+                Diff.unified(entry.getKey(), renamedTo.getName(),
+                        oldBlob.contents(), newBlob.contents(), System.out);
+                continue;
+            }
+            if (oldBlob != null && oldBlob.sameAs(newBlob)) {
+                continue;
+            }
+            Diff.unified(entry.getKey(),
+                    oldBlob == null ? null : oldBlob.contents(),
+                    newBlob == null ? null : newBlob.contents(), System.out);
+        }
+    }
+
+    /**
+     * @return the entries of CONTENT whose paths OTHER does not track.
+     */
+    static Map<File, Blob> absentFrom(Map<File, Blob> content, Map<File, Blob> other) {
+        Map<File, Blob> result = new HashMap<>();
+        for (Map.Entry<File, Blob> entry : content.entrySet()) {
+            if (!other.containsKey(entry.getKey())) {
+                result.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return result;
+    }
+
+    private static void diffWorkingTree(Map<File, Blob> index) {
+        TreeMap<String, File> paths = new TreeMap<>();
+        for (Map.Entry<File, Blob> entry : index.entrySet()) {
+            File f = entry.getKey();
+            if (!f.exists() || !sha1OfFile(f).equals(entry.getValue().sha1())) {
+                paths.put(f.getName(), f);
+            }
+        }
+        List<Blob> changed = new ArrayList<>();
+        for (File f : paths.values()) {
+            changed.add(index.get(f));
+        }
+        fetchMissingBlobs(changed);
+        for (Map.Entry<String, File> entry : paths.entrySet()) {
+            File f = entry.getValue();
+            Diff.unified(entry.getKey(), index.get(f).contents(), f.exists() ? f : null, System.out);
+        }
+    }
+
+    /**
+     * Prints each line of FILENAME as of the head commit, prefixed with the
+     * commit that introduced it. A line present in any parent of a merge is
+     * followed into that parent; see Blame for how history is walked and
+     * cached.
+     *
+     * @param fileName name of the file to blame.
+     */
+    public void blame(String fileName) {
+        File f = Utils.join(CWD, fileName);
+        Blob blob = _head.content.get(f);
+        if (blob == null) {
+            Main.exit("File does not exist in that commit.");
+            return;
+        }
+        Map.Entry<Lines, String[]> blamed = Blame.origins(_head, f, blob);
+        Lines lines = blamed.getKey();
+        String[] origins = blamed.getValue();
+
+        SimpleDateFormat formatter = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss Z", Locale.ENGLISH);
+        for (int i = 0; i < lines.size(); i++) {
+            Commit origin = getCommit(origins[i]);
+            String line = lines.get(i);
+            System.out.print(origin.sha1.substring(0, 7) + " ("
+                    + formatter.format(origin.timeStamp) + " " + (i + 1) + ") ");
+            System.out.write(line.getBytes(StandardCharsets.ISO_8859_1), 0, line.length());
+            if (!line.endsWith("\n")) {
+                System.out.println();
+            }
+        }
+        System.out.flush();
+    }
+
+    /**
+     * Removes commits, blobs and their auxiliary files that are no longer
+     * reachable from any branch, the head commit or the stage.
+     * Only files older than the grace period are removed, 14 days unless
+     * given as --prune=[days] or --prune=now.
+     *
+     * @param args the arguments passed to the gc command.
+     * @return the number of unreachable commits and blobs kept for being
+     * younger than the grace period.
+     */
+    public long gc(String[] args) {
+        long graceDays = 14;
+        if (args.length == 2) {
+            if (!args[1].startsWith("--prune=")) {
+                Main.exit("Incorrect operands.");
+            }
+            String value = args[1].substring("--prune=".length());
+            try {
+                graceDays = value.equals("now") ? 0 : Long.parseLong(value);
+            } catch (NumberFormatException excp) {
+                Main.exit("Incorrect operands.");
+            }
+        }
+        long cutoff = System.currentTimeMillis() - graceDays * 24 * 60 * 60 * 1000;
+
+        // Mark: walk from every branch tip in parallel, sharing one visited set.
+        List<String> tips = refTips();
+        Set<String> liveCommits = ConcurrentHashMap.newKeySet();
+        tips.parallelStream().forEach(tip -> markReachable(tip, liveCommits));
+        Set<String> liveBlobs = ConcurrentHashMap.newKeySet();
+        liveCommits.parallelStream().forEach(id -> {
+            for (Blob b : getCommit(id).content.values()) {
+                liveBlobs.add(b.sha1());
+            }
+        });
+        for (StageObject so : stage.values()) {
+            if (so != null) {
+                liveBlobs.add(so.blob.sha1());
+            }
+        }
+        for (Blob b : stagedElsewhere()) {
+            liveBlobs.add(b.sha1());
+        }
+
+        // Sweep.
+        long[] commitsFreed = sweep(COMMIT_DIR, liveCommits::contains, cutoff);
+        long[] blobsFreed = sweep(OBJECT_DIR,
+                name -> name.equals(CORE_FILE.getName()) || liveBlobs.contains(name), cutoff);
+        long[] othersFreed = new long[3];
+        addTo(othersFreed, sweep(LOG_DIR,
+                name -> name.length() != nullId().length() || liveCommits.contains(name), cutoff));
+        addTo(othersFreed, sweep(BLOOM_DIR, liveCommits::contains, cutoff));
+        addTo(othersFreed, sweep(BLAME_DIR, name -> {
+            String[] ids = name.split("-");
+            return liveCommits.contains(ids[0]) && liveBlobs.contains(ids[1]);
+        }, cutoff));
+
+        System.out.println("Removed " + commitsFreed[0] + " commits, " + blobsFreed[0]
+                + " blobs and " + othersFreed[0] + " other files; reclaimed "
+                + (commitsFreed[1] + blobsFreed[1] + othersFreed[1]) + " bytes.");
+        return commitsFreed[2] + blobsFreed[2];
+    }
+
+    /**
+     * @return the commit ids the head, the local branches and the
+     * remote-tracking refs point at.
+     */
+    private List<String> refTips() {
+        List<String> tips = new ArrayList<>();
+        for (String branchName : Utils.plainFilenamesIn(REFS_DIR)) {
+            tips.add(readRef(branchName));
+        }
+        File[] remotes = REMOTE_REFS_DIR.listFiles(File::isDirectory);
+        if (remotes != null) {
+            for (File remote : remotes) {
+                for (String branchName : Utils.plainFilenamesIn(remote)) {
+                    tips.add(Utils.readContentsAsString(Utils.join(remote, branchName)));
+                }
+            }
+        }
+        tips.add(_head.sha1);
+        return tips;
+    }
+
+    /**
+     * Verifies the object store. Commit files are read back in parallel and
+     * checked against the ids they are named by, and blobs are rehashed in
+     * parallel, streaming their contents, with the path recorded by the
+     * commits that track them; large blobs are checked in the large-object
+     * store. Everything reachable from the head, the branches and the
+     * remote-tracking refs must be present, except blobs a partial clone
+     * leaves with its promisor remote. Objects not reachable are reported
+     * as dangling.
+     */
+    public void fsck() {
+        Queue<String> problems = new ConcurrentLinkedQueue<>();
+        Map<String, Commit> commits = new ConcurrentHashMap<>();
+        Utils.plainFilenamesIn(COMMIT_DIR).parallelStream().forEach(id -> {
+            ByteArrayInputStream raw = new ByteArrayInputStream(
+                    Utils.readContents(Utils.join(COMMIT_DIR, id)));
+            try (ObjectInputStream in = new ObjectInputStream(raw)) {
+                Commit c = (Commit) in.readObject();
+                if (id.equals(c.sha1) && c.message != null && c.timeStamp != null
+                        && c.parents != null && raw.available() == 0) {
+                    commits.put(id, c);
+                    return;
+                }
+            } catch (IOException | ClassNotFoundException | RuntimeException excp) {
+                // reported below
+            }
+            problems.add("corrupt commit " + id);
+        });
+
+        // Connectivity.
+        Set<String> reachable = new HashSet<>();
+        Map<String, Blob> liveBlobs = new HashMap<>();
+        Deque<String> toVisit = new ArrayDeque<>(refTips());
+        while (!toVisit.isEmpty()) {
+            String id = toVisit.pop();
+            if (!reachable.add(id)) {
+                continue;
+            }
+            Commit c = commits.get(id);
+            if (c == null) {
+                if (!Utils.join(COMMIT_DIR, id).exists()) {
+                    problems.add("missing commit " + id);
+                }
+                continue;
+            }
+            toVisit.addAll(Arrays.asList(c.parents));
+            for (Blob b : c.content.values()) {
+                liveBlobs.put(b.sha1(), b);
+            }
+        }
+        for (StageObject so : stage.values()) {
+            if (so != null) {
+                liveBlobs.put(so.blob.sha1(), so.blob);
+            }
+        }
+        for (Blob b : stagedElsewhere()) {
+            liveBlobs.put(b.sha1(), b);
+        }
+        boolean promisor = Config.get("core.promisor", null) != null;
+        for (Blob b : liveBlobs.values()) {
+            if (!promisor && !b.underlying().exists()) {
+                problems.add("missing blob " + b.sha1() + " (" + b.name() + ")");
+            }
+        }
+        for (String id : commits.keySet()) {
+            if (!reachable.contains(id)) {
+                problems.add("dangling commit " + id);
+            }
+        }
+
+        // Contents. Blobs tracked only by dangling commits are checked too.
+        Map<String, Blob> knownBlobs = new HashMap<>();
+        for (Commit c : commits.values()) {
+            for (Blob b : c.content.values()) {
+                knownBlobs.put(b.sha1(), b);
+            }
+        }
+        knownBlobs.putAll(liveBlobs);
+        LongAdder bytes = new LongAdder();
+        List<String> blobIds = new ArrayList<>(Utils.plainFilenamesIn(OBJECT_DIR));
+        blobIds.removeIf(name -> name.equals(CORE_FILE.getName()) || name.contains("."));
+        blobIds.parallelStream().forEach(id -> {
+            Blob b = knownBlobs.get(id);
+            if (b == null) {
+                problems.add("dangling blob " + id);
+                return;
+            }
+            if (!liveBlobs.containsKey(id)) {
+                problems.add("dangling blob " + id);
+            }
+            File contents = b.large ? Utils.join(Blob.largeObjectStore(), id) : b.underlying();
+            if (!contents.isFile()) {
+                problems.add("missing large object " + id + " (" + b.name() + ")");
+                return;
+            }
+            bytes.add(contents.length());
+            try {
+                if (!sha1OfFile(b.name(), contents).equals(id)) {
+                    problems.add("corrupt blob " + id + " (" + b.name() + ")");
+                }
+            } catch (IllegalArgumentException excp) {
+                problems.add("unreadable blob " + id + " (" + b.name() + ")");
+            }
+        });
+
+        problems.stream().sorted().forEach(System.out::println);
+        System.out.println("Checked " + commits.size() + " commits and " + blobIds.size()
+                + " blobs (" + bytes.sum() + " bytes); " + problems.size() + " problems found.");
+    }
+
+    /**
+     * @return the number of commit and blob objects in the store, counting
+     * names only.
+     */
+    static long objectCount() {
+        String[] commits = COMMIT_DIR.list();
+        String[] objects = OBJECT_DIR.list();
+        return (commits == null ? 0 : commits.length) + (objects == null ? 0 : objects.length);
+    }
+
+    /**
+     * @return the bytes taken by the reflogs of the head and branches and by
+     * the global log.
+     */
+    static long logBytes() {
+        return HEAD_LOG_FILE.length() + GLOBAL_LOG_FILE.length() + sizeOf(BRANCH_LOG_DIR, false);
+    }
+
+    /**
+     * Keeps only the last KEEP entries of the head and branch reflogs, and
+     * drops the global log entries of commits no longer in the store.
+     */
+    static void expireLogs(long keep) {
+        List<File> reflogs = new ArrayList<>(List.of(HEAD_LOG_FILE));
+        for (String branchName : Utils.plainFilenamesIn(BRANCH_LOG_DIR)) {
+            reflogs.add(Utils.join(BRANCH_LOG_DIR, branchName));
+        }
+        for (File log : reflogs) {
+            if (!log.isFile()) {
+                continue;
+            }
+            String[] entries = Utils.readContentsAsString(log).split("\n");
+            if (entries.length > keep) {
+                String kept = String.join("\n",
+                        Arrays.copyOfRange(entries, (int) (entries.length - keep), entries.length));
+                Utils.writeContents(log, kept.isEmpty() ? "" : kept + "\n");
+            }
+        }
+
+        String global = Utils.readContentsAsString(GLOBAL_LOG_FILE);
+        StringBuilder sb = new StringBuilder();
+        String marker = "===\ncommit ";
+        for (int start = global.indexOf(marker); start >= 0; ) {
+            int end = global.indexOf(marker, start + marker.length());
+            String entry = global.substring(start, end < 0 ? global.length() : end);
+            String id = entry.substring(marker.length(),
+                    Math.min(entry.length(), marker.length() + nullId().length()));
+            if (Utils.join(COMMIT_DIR, id).isFile()) {
+                sb.append(entry);
+            }
+            start = end;
+        }
+        Utils.writeContents(GLOBAL_LOG_FILE, sb.toString());
+    }
+
+    /**
+     * Handles archive [commit id] [file], which writes the files of the commit
+     * to FILE, a tar or zip archive chosen by its extension, reading them
+     * from the object store. The working directory and stage are untouched.
+     *
+     * @param args the arguments passed to the archive command.
+     */
+    public void archive(String[] args) {
+        Commit commit = getCommitByShortId(args[1]);
+        if (commit == null) {
+            Main.exit("No commit with that id exists.");
+        }
+        File out = CWD.toPath().resolve(args[2]).toFile();
+        boolean tar = out.getName().endsWith(".tar");
+        if (!tar && !out.getName().endsWith(".zip")) {
+            Main.exit("Archive name must end in .tar or .zip.");
+        }
+        List<Blob> files = new ArrayList<>(commit.content.values());
+        files.sort(Comparator.comparing(Blob::relativePath));
+        fetchMissingBlobs(files);
+        try {
+            if (tar) {
+                Archive.writeTar(out, files, commit.timeStamp.getTime());
+            } else {
+                Archive.writeZip(out, files, commit.timeStamp.getTime());
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Handles stats [--json]: prints the sizes that make a repository slow to
+     * use, together with the time taken to load its metadata, as lines of
+     * text or as one JSON object.
+     *
+     * @param args the arguments passed to the stats command.
+     */
+    public static void stats(String[] args) {
+        boolean json = args.length == 2;
+        if (json && !args[1].equals("--json")) {
+            Main.exit("Incorrect operands.");
+        }
+        long start = System.nanoTime();
+        Repository repo = load();
+        long loadMicros = (System.nanoTime() - start) / 1000;
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        List<String> commitIds = Utils.plainFilenamesIn(COMMIT_DIR);
+        stats.put("commits", commitIds.size());
+        stats.put("commitBytes", sizeOf(COMMIT_DIR, false));
+        long blobs = 0;
+        long blobBytes = 0;
+        for (String name : Utils.plainFilenamesIn(OBJECT_DIR)) {
+            if (!name.equals(CORE_FILE.getName()) && !name.contains(".")) {
+                blobs++;
+                blobBytes += Utils.join(OBJECT_DIR, name).length();
+            }
+        }
+        stats.put("blobs", blobs);
+        stats.put("blobBytes", blobBytes);
+        stats.put("largeObjectBytes", sizeOf(Blob.largeObjectStore(), true));
+        stats.put("coreBytes", CORE_FILE.length());
+        stats.put("headLogBytes", HEAD_LOG_FILE.length());
+        stats.put("globalLogBytes", GLOBAL_LOG_FILE.length());
+        stats.put("bloomBytes", sizeOf(BLOOM_DIR, true));
+        stats.put("blameBytes", sizeOf(BLAME_DIR, true));
+        stats.put("branches", Utils.plainFilenamesIn(REFS_DIR).size());
+        stats.put("stagedFiles", repo.stage.size());
+        stats.put("trackedFiles", repo._head.content.size());
+        stats.put("historyDepth", historyDepth(repo._head.sha1));
+        stats.put("loadMicros", loadMicros);
+
+        List<Blob> largest = new ArrayList<>(repo._head.content.values());
+        largest.sort(Comparator.comparingLong(Repository::storedSize).reversed());
+        largest = largest.subList(0, Math.min(10, largest.size()));
+
+        StringBuilder sb = new StringBuilder();
+        if (json) {
+            sb.append('{');
+            for (Map.Entry<String, Object> entry : stats.entrySet()) {
+                sb.append('"').append(entry.getKey()).append("\":").append(entry.getValue())
+                        .append(',');
+            }
+            sb.append("\"largestFiles\":[");
+            for (int i = 0; i < largest.size(); i++) {
+                Blob b = largest.get(i);
+                sb.append(i == 0 ? "" : ",").append("{\"name\":\"")
+                        .append(b.name().replace("\\", "\\\\").replace("\"", "\\\""))
+                        .append("\",\"bytes\":").append(storedSize(b)).append('}');
+            }
+            sb.append("]}");
+        } else {
+            for (Map.Entry<String, Object> entry : stats.entrySet()) {
+                sb.append(entry.getKey()).append(": ").append(entry.getValue()).append('\n');
+            }
+            sb.append("largestFiles:");
+            for (Blob b : largest) {
+                sb.append("\n  ").append(b.name()).append(' ').append(storedSize(b));
+            }
+        }
+        System.out.println(sb);
+    }
+
+    /**
+     * @return the bytes of the plain files in DIR, and in its subdirectories
+     * if RECURSIVE is true.
+     */
+    private static long sizeOf(File dir, boolean recursive) {
+        long size = 0;
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                if (f.isFile()) {
+                    size += f.length();
+                } else if (recursive && f.isDirectory()) {
+                    size += sizeOf(f, true);
+                }
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return the size of the contents of B as stored locally, without
+     * fetching missing contents.
+     */
+    private static long storedSize(Blob b) {
+        return b.large ? Utils.join(Blob.largeObjectStore(), b.sha1()).length()
+                : b.underlying().length();
+    }
+
+    /**
+     * @return the number of commits on the longest path from TIP to an
+     * initial commit.
+     */
+    private static int historyDepth(String tip) {
+        Map<String, Integer> depth = new HashMap<>();
+        Deque<String> toVisit = new ArrayDeque<>();
+        toVisit.push(tip);
+        while (!toVisit.isEmpty()) {
+            String id = toVisit.peek();
+            if (depth.containsKey(id)) {
+                toVisit.pop();
+                continue;
+            }
+            int deepest = 0;
+            boolean ready = true;
+            for (String parent : getCommit(id).parents) {
+                Integer d = depth.get(parent);
+                if (d == null) {
+                    toVisit.push(parent);
+                    ready = false;
+                } else {
+                    deepest = Math.max(deepest, d);
+                }
+            }
+            if (ready) {
+                depth.put(id, deepest + 1);
+                toVisit.pop();
+            }
+        }
+        return depth.get(tip);
+    }
+
+    private static void markReachable(String tip, Set<String> visited) {
+        Deque<String> toVisit = new ArrayDeque<>();
+        toVisit.push(tip);
+        while (!toVisit.isEmpty()) {
+            String id = toVisit.pop();
+            if (visited.add(id)) {
+                for (String parent : getCommit(id).parents) {
+                    toVisit.push(parent);
+                }
+            }
+        }
+    }
+
+    /**
+     * Deletes the plain files in DIR that KEEP rejects and that were last
+     * modified before CUTOFF.
+     *
+     * @return the number of files deleted, the bytes they occupied and the
+     * number of rejected files kept for being too recent.
+     */
+    private static long[] sweep(File dir, Predicate<String> keep, long cutoff) {
+        long[] freed = new long[3];
+        List<String> names = Utils.plainFilenamesIn(dir);
+        if (names == null) {
+            return freed;
+        }
+        for (String name : names) {
+            File f = Utils.join(dir, name);
+            if (keep.test(name)) {
+                continue;
+            }
+            if (f.lastModified() >= cutoff) {
+                freed[2]++;
+                continue;
+            }
+            long size = f.length();
+            if (f.delete()) {
+                freed[0]++;
+                freed[1] += size;
+            }
+        }
+        return freed;
+    }
+
+    private static void addTo(long[] total, long[] amount) {
+        total[0] += amount[0];
+        total[1] += amount[1];
+        total[2] += amount[2];
+    }
+
+    /**
+     * Records the repository whose .gitlet directory is at PATH as a remote.
+     */
+    public static void addRemote(String remoteName, String path) {
+        if (Config.get("remote." + remoteName + ".path", null) != null) {
+            Main.exit("A remote with that name already exists.");
+        }
+        Config.set("remote." + remoteName + ".path", path);
+    }
+
+    public static void removeRemote(String remoteName) {
+        if (Config.get("remote." + remoteName + ".path", null) == null) {
+            Main.exit("A remote with that name does not exist.");
+        }
+        Config.set("remote." + remoteName + ".path", null);
+    }
+
+    /**
+     * @return the .gitlet directory of the remote REMOTENAME.
+     */
+    private static File remoteDir(String remoteName) {
+        String path = Config.get("remote." + remoteName + ".path", null);
+        File dir = path == null ? null : CWD.toPath().resolve(path).toFile();
+        if (dir == null || !dir.isDirectory()) {
+            Main.exit("Remote directory not found.");
+        }
+        if (HashAlgorithm.recordedIn(commonDir(dir)) != HashAlgorithm.current()) {
+            Main.exit("That remote uses a different object format.");
+        }
+        return commonDir(dir);
+    }
+
+    /**
+     * @return the directory holding the shared data of the repository whose
+     * .gitlet directory is GITLETDIR.
+     */
+    private static File commonDir(File gitletDir) {
+        File link = join(gitletDir, "commondir");
+        return link.isFile() ? new File(readContentsAsString(link).trim()) : gitletDir;
+    }
+
+    /**
+     * Lists the commits reachable from WANT whose ids HAVE rejects, parents
+     * before children. The walk stops at every commit the receiver already
+     * has, since all of its ancestors are then present too.
+     *
+     * @param source .gitlet directory of the repository holding the commits.
+     */
+    private static List<String> missingCommits(File source, String want, Predicate<String> have) {
+        List<String> order = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        Deque<String> toVisit = new ArrayDeque<>();
+        Deque<Boolean> expanded = new ArrayDeque<>();
+        toVisit.push(want);
+        expanded.push(false);
+        while (!toVisit.isEmpty()) {
+            String id = toVisit.pop();
+            if (expanded.pop()) {
+                order.add(id);
+            } else if (!have.test(id) && seen.add(id)) {
+                toVisit.push(id);
+                expanded.push(true);
+                for (String parent : Utils.readObject(
+                        Pack.commitFile(source, id), Commit.class).parents) {
+                    toVisit.push(parent);
+                    expanded.push(false);
+                }
+            }
+        }
+        return order;
+    }
+
+    /**
+     * Streams COMMITIDS from SOURCE into TARGET as a pack read while it is
+     * written, and writes their log files in TARGET. Blobs TARGET lacks are
+     * included unless OMITBLOBS is true, together with the contents of large
+     * blobs its large-object store lacks. If the transfer fails, the
+     * objects it installed are removed again.
+     */
+    private static void transfer(File source, File target, List<String> commitIds,
+                                 boolean omitBlobs) {
+        if (!omitBlobs) {
+            List<Blob> large = new ArrayList<>();
+            for (String id : commitIds) {
+                for (Blob b : Utils.readObject(Pack.commitFile(source, id), Commit.class)
+                        .content.values()) {
+                    if (b.large) {
+                        large.add(b);
+                    }
                 }
             }
+            copyLargeObjects(source, target, large);
+        }
+        List<File> created = new ArrayList<>();
+        try {
+            List<String> installed = Pack.stream(out -> Pack.write(out, source, commitIds,
+                    id -> omitBlobs || Pack.blobFile(target, id).exists()), target, created);
+            for (String id : installed) {
+                writeCommitLog(Utils.join(target, "logs"),
+                        Utils.readObject(Pack.commitFile(target, id), Commit.class));
+            }
+        } catch (IOException excp) {
+            for (File f : created) {
+                f.delete();
+            }
+            Main.exit("IOException");
         }
-        Date date = _head.timeStamp;
-        SimpleDateFormat formatter =
-                new SimpleDateFormat("EEE MMM d HH:mm:ss yyyy Z", Locale.ENGLISH);
-        sb.append("Date: ").append(formatter.format(date)).append('\n');
-        sb.append(_head.message).append("\n\n");
-        String logStr = sb.toString();
-        Utils.writeContents(Utils.join(LOG_DIR, _head.sha1),
-                (_head.parents.length == 0
-                        ? NULLSHA1 + "\n" : _head.parents[0].sha1 + "\n"), logStr);
-        String oldHeadLog = Utils.readContentsAsString(HEAD_LOG_FILE);
-        Utils.writeContents(HEAD_LOG_FILE, logStr, oldHeadLog);
-        Utils.writeContents(GLOBAL_LOG_FILE, logStr, Utils.readContentsAsString(GLOBAL_LOG_FILE));
     }
 
-    private static final String NULLSHA1 = "0000000000000000000000000000000000000000";
-
-    public void commit(String msg) {
-        commit(msg, new Commit[]{_head});
+    /**
+     * Brings down the commits of branch BRANCHNAME of REMOTENAME that this
+     * repository lacks, and points [remote name]/[branch name] at its head.
+     */
+    public void fetch(String remoteName, String branchName) {
+        File remote = remoteDir(remoteName);
+        File remoteRef = Utils.join(remote, "refs", "heads", branchName);
+        if (!remoteRef.isFile()) {
+            Main.exit("That remote does not have that branch.");
+        }
+        String want = Utils.readContentsAsString(remoteRef);
+        List<String> missing = missingCommits(remote, want,
+                id -> Utils.join(COMMIT_DIR, id).exists());
+        transfer(remote, COMMON_DIR, missing, Config.get("core.promisor", null) != null);
+        for (String id : missing) {
+            writeBloom(getCommit(id));
+        }
+        File ref = Utils.join(REMOTE_REFS_DIR, remoteName, branchName);
+        ref.getParentFile().mkdirs();
+        Utils.writeContents(ref, want);
     }
 
-    private void commit(String msg, Commit[] parents) {
-        if (stage.isEmpty() && parents.length == 1 && parents[0] != null) {
-            Main.exit("No changes added to the commit.");
+    /**
+     * Sends the commits of the head commit's history that REMOTENAME lacks,
+     * and points its branch BRANCHNAME at the head commit. The remote branch
+     * must not have commits missing from the local history, and must not be
+     * checked out in any working tree of the remote, whose files and stage
+     * would no longer match it.
+     */
+    public void push(String remoteName, String branchName) {
+        File remote = remoteDir(remoteName);
+        List<File> trees = linkedWorktrees(commonDir(remote));
+        trees.add(commonDir(remote));
+        for (File gitletDir : trees) {
+            File head = Utils.join(gitletDir, "HEAD");
+            if (head.isFile() && Utils.readContentsAsString(head)
+                    .equals(HEAD_REF_PREFIX + branchName)) {
+                Main.exit("Cannot push to a branch checked out in the remote.");
+            }
         }
-        if (msg.isEmpty()) {
-            Main.exit("Please enter a commit message.");
+        File remoteRef = Utils.join(remote, "refs", "heads", branchName);
+        if (remoteRef.isFile()) {
+            Set<String> history = new HashSet<>();
+            markReachable(_head.sha1, history);
+            if (!history.contains(Utils.readContentsAsString(remoteRef))) {
+                Main.exit("Please pull down remote changes before pushing.");
+            }
         }
-        _head = new Commit(msg, parents);
-        branches.put(currentBranchName, _head);
-        recordLog();
-        commits.put(_head.sha1, _head);
+        List<String> missing = missingCommits(COMMON_DIR, _head.sha1,
+                id -> Pack.commitFile(remote, id).exists());
+        List<Blob> toSend = new ArrayList<>();
+        for (String id : missing) {
+            for (Blob b : getCommit(id).content.values()) {
+                if (!Pack.blobFile(remote, b.sha1()).exists()) {
+                    toSend.add(b);
+                }
+            }
+        }
+        fetchMissingBlobs(toSend);
+        transfer(COMMON_DIR, remote, missing, false);
+        String old = remoteRef.isFile() ? Utils.readContentsAsString(remoteRef) : nullId();
+        Utils.writeContents(remoteRef, _head.sha1);
+        appendLog(Utils.join(remote, "logs", "refs", "heads", branchName),
+                old, _head.sha1, "push");
     }
 
-    public static void log() {
-        String headId = Utils.readContentsAsString(HEAD_FILE);
-        String logStr = Utils.readContentsAsString(HEAD_LOG_FILE);
-        final String logHead = "===\ncommit ";
-        String recordHeadId =
-                logStr.substring(logHead.length(), logHead.length() + NULLSHA1.length());
-        if (headId.equals(recordHeadId)) {
-            System.out.print(logStr);
+    /**
+     * Handles the bundle command.
+     * bundle create [file] [revision] writes the commits reachable from the
+     * revision, a branch name or commit id, with their blobs and a ref to
+     * the tip into one checksummed file; a revision of the form [from]..[to]
+     * leaves out the commits reachable from [from].
+     * bundle unbundle [file] imports such a file.
+     *
+     * @param args the arguments passed to the bundle command.
+     */
+    public void bundle(String[] args) {
+        if (args[1].equals("create") && args.length == 4) {
+            bundleCreate(CWD.toPath().resolve(args[2]).toFile(), args[3]);
+        } else if (args[1].equals("unbundle") && args.length == 3) {
+            unbundle(CWD.toPath().resolve(args[2]).toFile());
         } else {
-            String newLog = rebuildLog(headId);
-            Utils.writeContents(HEAD_LOG_FILE, newLog);
-            System.out.println(newLog);
+            Main.exit("Incorrect operands.");
         }
     }
 
-    private static String rebuildLog(String headId) {
-        StringBuilder sb = new StringBuilder();
-        String logStr = Utils.readContentsAsString(Utils.join(LOG_DIR, headId));
-        String recordHeadId = logStr.substring(0, NULLSHA1.length());
-        sb.append(logStr.substring(NULLSHA1.length() + 1));
-        if (!recordHeadId.equals(NULLSHA1)) {
-            sb.append(rebuildLog(recordHeadId));
+    /**
+     * @return the commit REVISION names, as a branch name or a commit id.
+     */
+    private Commit resolveRevision(String revision) {
+        Commit commit = branchHead(revision);
+        if (commit == null) {
+            commit = getCommitByShortId(revision);
         }
-        return sb.toString();
+        if (commit == null) {
+            Main.exit("No commit with that id exists.");
+        }
+        return commit;
     }
 
-    public static void globalLog() {
-        System.out.println(Utils.readContentsAsString(GLOBAL_LOG_FILE));
-    }
+    private static final String BUNDLE_MAGIC = "GITLET BUNDLE 2";
+    /** Bundles of the first version hold packs whose blobs cannot be checked. */
+    private static final String BUNDLE_MAGIC_V1 = "GITLET BUNDLE 1";
 
-    private void rm(File tobeRm) {
-        if (!stage.containsKey(tobeRm) && !_head.content.containsKey(tobeRm)) {
-            Main.exit("No reason to remove the file.");
+    /**
+     * Streams a bundle to FILE: a header naming the object format, the tip
+     * and the commits the receiver must already have, then a pack, then a
+     * SHA-1 of everything before it. Nothing is staged on disk along the way.
+     */
+    private void bundleCreate(File file, String range) {
+        String[] ends = range.split("\\.\\.", -1);
+        if (ends.length > 2) {
+            Main.exit("Incorrect operands.");
         }
-        // Unstage the file if it is currently staged for addition.
-        stage.remove(tobeRm);
-        // If the file is tracked in the current commit
-        if (_head.content.containsKey(tobeRm)) {
-            // stage it for removal,
-            stage.put(tobeRm, null);
-            // and remove the file from the working directory if the user has not already done so.
-            if (tobeRm.exists()) {
-                Utils.restrictedDelete(tobeRm);
-            }
+        String tipName = ends[ends.length - 1];
+        Commit tip = resolveRevision(tipName);
+        Set<String> excluded = new HashSet<>();
+        if (ends.length == 2) {
+            markReachable(resolveRevision(ends[0]).sha1, excluded);
         }
-    }
+        List<String> commits = missingCommits(COMMON_DIR, tip.sha1, excluded::contains);
 
-    public void rm(String fileName) {
-        File tobeRm = Utils.join(CWD, fileName);
-        rm(tobeRm);
-    }
+        // Commits outside the bundle that bundled commits build on.
+        Set<String> included = new HashSet<>(commits);
+        Set<String> prerequisites = new TreeSet<>();
+        Set<String> knownBlobs = new HashSet<>();
+        for (String id : commits) {
+            for (String parent : getCommit(id).parents) {
+                if (!included.contains(parent) && prerequisites.add(parent)) {
+                    for (Blob b : getCommit(parent).content.values()) {
+                        knownBlobs.add(b.sha1());
+                    }
+                }
+            }
+        }
+        Set<String> blobIds = new LinkedHashSet<>();
+        List<Blob> toSend = new ArrayList<>();
+        for (String id : commits) {
+            for (Blob b : getCommit(id).content.values()) {
+                if (!knownBlobs.contains(b.sha1()) && blobIds.add(b.sha1())) {
+                    toSend.add(b);
+                }
+            }
+        }
+        fetchMissingBlobs(toSend);
 
-    public void save() {
-        Utils.writeContents(HEAD_FILE, _head.sha1);
-        Utils.writeObject(CORE_FILE, this);
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file.toPath()))) {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            DigestOutputStream digestOut = new DigestOutputStream(out, md);
+            DataOutputStream header = new DataOutputStream(digestOut);
+            header.writeUTF(BUNDLE_MAGIC);
+            header.writeUTF(HashAlgorithm.current().toString());
+            header.writeInt(1);
+            header.writeUTF(tipName);
+            header.writeUTF(tip.sha1);
+            header.writeInt(prerequisites.size());
+            for (String id : prerequisites) {
+                header.writeUTF(id);
+            }
+            header.flush();
+            Pack.write(digestOut, COMMON_DIR, toSend, commits);
+            out.write(md.digest());
+        } catch (IOException | NoSuchAlgorithmException excp) {
+            Main.exit("IOException");
+        }
+        System.out.println("Bundled " + commits.size() + " commits and "
+                + blobIds.size() + " blobs.");
     }
 
-    public static List<String> find(String keyword) {
-        List<String> ids = new ArrayList<>();
-        for (Commit cmt : me.commits.values()) {
-            if (cmt.message.contains(keyword)) {
-                ids.add(cmt.sha1);
+    /**
+     * Imports the bundle FILE, writing objects as they are read and checking
+     * the checksum at the end; objects written are removed again if it does
+     * not match. Refs in the bundle become refs/remotes/bundle/[name].
+     */
+    private void unbundle(File file) {
+        if (!file.isFile()) {
+            Main.exit("File does not exist.");
+        }
+        Map<String, String> refs = new LinkedHashMap<>();
+        List<String> commits = null;
+        List<File> created = new ArrayList<>();
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file.toPath()))) {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            DigestInputStream digestIn = new DigestInputStream(in, md);
+            DataInputStream data = new DataInputStream(digestIn);
+            String magic = data.readUTF();
+            if (magic.equals(BUNDLE_MAGIC_V1)) {
+                Main.exit("That bundle was written by an older version of gitlet.");
+            } else if (!magic.equals(BUNDLE_MAGIC)) {
+                Main.exit("Not a gitlet bundle.");
+            }
+            if (HashAlgorithm.named(data.readUTF()) != HashAlgorithm.current()) {
+                Main.exit("That bundle uses a different object format.");
+            }
+            for (int n = data.readInt(); n > 0; n--) {
+                refs.put(data.readUTF(), data.readUTF());
             }
+            List<String> lacking = new ArrayList<>();
+            for (int n = data.readInt(); n > 0; n--) {
+                String id = data.readUTF();
+                if (!Utils.join(COMMIT_DIR, id).exists()) {
+                    lacking.add(id);
+                }
+            }
+            if (!lacking.isEmpty()) {
+                Main.exit("Repository lacks these prerequisite commits: "
+                        + String.join(" ", lacking));
+            }
+            commits = Pack.read(data, COMMON_DIR, created);
+            byte[] expected = md.digest();
+            if (!Arrays.equals(expected, data.readNBytes(expected.length))) {
+                throw new IOException("checksum mismatch");
+            }
+        } catch (IOException | GitletException | NoSuchAlgorithmException excp) {
+            for (File f : created) {
+                f.delete();
+            }
+            Main.exit("Bundle is corrupt.");
+        }
+        for (String id : commits) {
+            Commit commit = getCommit(id);
+            writeCommitLog(LOG_DIR, commit);
+            writeBloom(commit);
+        }
+        for (Map.Entry<String, String> ref : refs.entrySet()) {
+            File refFile = Utils.join(REMOTE_REFS_DIR, "bundle", ref.getKey());
+            refFile.getParentFile().mkdirs();
+            Utils.writeContents(refFile, ref.getValue());
+            System.out.println(ref.getValue() + " bundle/" + ref.getKey());
         }
-        return ids;
     }
 
     private ArrayList<File> allFilesInCWD() {
@@ -303,7 +1775,7 @@ public class Repository implements Serializable {
     public String status() {
         StringBuilder sb = new StringBuilder();
         sb.append("=== Branches ===\n");
-        for (String branchName : branches.keySet()) {
+        for (String branchName : Utils.plainFilenamesIn(REFS_DIR)) {
             sb.append(branchName.equals(currentBranchName)
                     ? ("*" + branchName) : branchName).append('\n');
         }
@@ -319,7 +1791,7 @@ public class Repository implements Serializable {
                 if (!entry.getKey().exists()) { // file has been deleted in workspace
                     modNotStaged.put(fileName, false);
                 } else if (sha1OfFile(entry.getKey()).equals(
-                        entry.getValue().blob.sha1)) {
+                        entry.getValue().blob.sha1())) {
                     // file exists but changed
                     stagedFiles.add(fileName);
                 } else { // file exists and file changed
@@ -342,10 +1814,10 @@ public class Repository implements Serializable {
         ArrayList<File> allFiles = allFilesInCWD();
         if (allFiles != null) {
             for (File file : allFiles) {
-                String sha1 = sha1OfFile(file);
                 if ((/* Tracked in the current commit */ _head.content.containsKey(file)
+                        /* and within the sparse checkout, */ && Sparse.includes(file)
                         /* changed in the working directory*/
-                        && !sha1.equals(_head.content.get(file).sha1)
+                        && !sha1OfFile(file).equals(_head.content.get(file).sha1())
                         /* but not staged. */ && !stage.containsKey(file))) {
                     modNotStaged.put(file.getName(), true);
                 }
@@ -353,7 +1825,8 @@ public class Repository implements Serializable {
         }
         for (File f : _head.content.keySet()) { // or, tracked in the current commit,
             //  deleted from the working directory and not staged for removal
-            if (!f.exists() && !stage.containsKey(f)) {
+            // Files outside the sparse checkout are absent on purpose.
+            if (!f.exists() && !stage.containsKey(f) && Sparse.includes(f)) {
                 modNotStaged.put(f.getName(), false);
             }
         }
@@ -371,7 +1844,8 @@ public class Repository implements Serializable {
         sb.append("\n=== Untracked Files ===\n");
         if (allFiles != null) {
             for (File f : allFiles) {
-                if (!_head.content.containsKey(f) && stage.get(f) == null) {
+                if (!_head.content.containsKey(f) && stage.get(f) == null
+                        && Sparse.includes(f)) {
                     sb.append(f.getName()).append('\n');
                 }
             }
@@ -391,22 +1865,263 @@ public class Repository implements Serializable {
         return list;
     }
 
+    /**
+     * Handles sparse-checkout set [pattern]..., which restricts the working
+     * directory to tracked files whose names match one of the glob patterns,
+     * sparse-checkout disable and sparse-checkout list. Files leaving the
+     * checkout are deleted unless they differ from the current commit;
+     * files entering it are written.
+     *
+     * @param args the arguments passed to the sparse-checkout command.
+     */
+    public void sparseCheckout(String[] args) {
+        switch (args[1]) {
+            case "list":
+                if (args.length != 2) {
+                    Main.exit("Incorrect operands.");
+                }
+                List<String> patterns = Sparse.patterns();
+                if (patterns != null) {
+                    patterns.forEach(System.out::println);
+                }
+                return;
+            case "set":
+                if (args.length < 3) {
+                    Main.exit("Incorrect operands.");
+                }
+                Sparse.set(Sparse.parse(args));
+                break;
+            case "disable":
+                if (args.length != 2) {
+                    Main.exit("Incorrect operands.");
+                }
+                Sparse.set(null);
+                break;
+            default:
+                Main.exit("Incorrect operands.");
+        }
+        List<Blob> toWrite = new ArrayList<>();
+        for (Map.Entry<File, Blob> entry : _head.content.entrySet()) {
+            File f = entry.getKey();
+            if (Sparse.includes(f)) {
+                if (!f.exists()) {
+                    toWrite.add(entry.getValue());
+                }
+            } else if (f.isFile() && stage.get(f) == null
+                    && sha1OfFile(f).equals(entry.getValue().sha1())) {
+                Utils.restrictedDelete(f);
+            }
+        }
+        fetchMissingBlobs(toWrite);
+        for (Blob b : toWrite) {
+            b.checkout();
+        }
+    }
+
     public static Repository load() {
         me = Utils.readObject(CORE_FILE, Repository.class);
+        me.currentBranchName = headBranch();
+        me._head = getCommit(readRef(me.currentBranchName));
         return me;
     }
 
+    /**
+     * Handles worktree add [directory] [branch name], which checks the branch
+     * out into a new working tree sharing this repository's objects, refs and
+     * logs, and worktree list. Only the tracked files are written; the new
+     * tree's .gitlet directory holds just its HEAD, reflog and stage.
+     *
+     * @param args the arguments passed to the worktree command.
+     */
+    public void worktree(String[] args) {
+        if (args[1].equals("list") && args.length == 2) {
+            List<File> trees = linkedWorktrees();
+            trees.add(0, COMMON_DIR);
+            for (File gitletDir : trees) {
+                System.out.println(gitletDir.getParentFile().getPath() + " ["
+                        + readContentsAsString(join(gitletDir, "HEAD")).substring(HEAD_REF_PREFIX.length())
+                        + "]");
+            }
+            return;
+        }
+        if (!args[1].equals("add") || args.length != 4) {
+            Main.exit("Incorrect operands.");
+        }
+        File dir = CWD.toPath().resolve(args[2]).normalize().toFile();
+        String branchName = args[3];
+        Commit tip = refFile(branchName).isFile() ? branchHead(branchName) : null;
+        if (tip == null) {
+            Main.exit("No such branch exists.");
+            return;
+        }
+        if (branchName.equals(currentBranchName) || checkedOutElsewhere(branchName)) {
+            Main.exit("That branch is already checked out.");
+        }
+        String[] existing = dir.list();
+        if (existing != null && existing.length > 0) {
+            Main.exit("A non-empty directory with that name already exists.");
+        }
+        File gitletDir = join(dir, ".gitlet");
+        join(gitletDir, "objects").mkdirs();
+        join(gitletDir, "logs").mkdirs();
+        writeContents(join(gitletDir, "commondir"), COMMON_DIR.getPath());
+        writeContents(join(gitletDir, "HEAD"), HEAD_REF_PREFIX + branchName);
+        appendLog(join(gitletDir, "logs", "HEAD"), nullId(), tip.sha1, "worktree add: " + branchName);
+        // The new tree starts with nothing staged.
+        StageType ownStage = stage;
+        stage = new StageType();
+        writeObject(join(gitletDir, "objects", "CORE"), this);
+        stage = ownStage;
+
+        WORKTREES_DIR.mkdirs();
+        String name = dir.getName();
+        for (int i = 1; join(WORKTREES_DIR, name).exists(); i++) {
+            name = dir.getName() + i;
+        }
+        writeContents(join(WORKTREES_DIR, name), gitletDir.getPath());
+
+        fetchMissingBlobs(tip.content.values());
+        for (Blob b : tip.content.values()) {
+            b.checkoutTo(join(dir, b.name()));
+        }
+    }
+
+    /**
+     * @return the .gitlet directories of the linked working trees that still
+     * exist.
+     */
+    private static List<File> linkedWorktrees() {
+        return linkedWorktrees(COMMON_DIR);
+    }
+
+    /**
+     * @return the .gitlet directories of the linked working trees of the
+     * repository whose shared .gitlet directory is COMMONDIR.
+     */
+    private static List<File> linkedWorktrees(File commonDir) {
+        List<File> dirs = new ArrayList<>();
+        File registry = join(commonDir, "worktrees");
+        List<String> names = plainFilenamesIn(registry);
+        if (names != null) {
+            for (String name : names) {
+                File gitletDir = new File(readContentsAsString(join(registry, name)));
+                if (join(gitletDir, "HEAD").isFile()) {
+                    dirs.add(gitletDir);
+                }
+            }
+        }
+        return dirs;
+    }
+
+    /**
+     * @return the .gitlet directories of all working trees except this one.
+     */
+    private static List<File> otherWorktrees() {
+        List<File> dirs = linkedWorktrees();
+        dirs.add(COMMON_DIR);
+        dirs.removeIf(dir -> dir.getAbsoluteFile().equals(GITLET_DIR.getAbsoluteFile()));
+        return dirs;
+    }
+
+    /**
+     * @return the blobs staged in the other working trees.
+     */
+    private static List<Blob> stagedElsewhere() {
+        List<Blob> staged = new ArrayList<>();
+        for (File gitletDir : otherWorktrees()) {
+            File core = join(gitletDir, "objects", "CORE");
+            if (core.isFile()) {
+                for (StageObject so : readObject(core, Repository.class).stage.values()) {
+                    if (so != null) {
+                        staged.add(so.blob);
+                    }
+                }
+            }
+        }
+        return staged;
+    }
+
+    /**
+     * @return true if another working tree has BRANCHNAME checked out.
+     */
+    private static boolean checkedOutElsewhere(String branchName) {
+        for (File gitletDir : otherWorktrees()) {
+            if (readContentsAsString(join(gitletDir, "HEAD")).equals(HEAD_REF_PREFIX + branchName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Make a new branch.
      *
      * @param newBranchName new branch name
      */
     public void makeBranch(String newBranchName) {
-        if (branches.containsKey(newBranchName)) {
+        if (refFile(newBranchName).exists()) {
             Main.exit("A branch with that name already exists.");
         }
-        branches.put(newBranchName, _head);
-        Repository.copyFile(HEAD_LOG_FILE, Utils.join(BRANCH_LOG_DIR, newBranchName));
+        updateRef(newBranchName, _head, "branch: Created from " + currentBranchName);
+    }
+
+    private static File refFile(String branchName) {
+        return Utils.join(REFS_DIR, branchName);
+    }
+
+    /**
+     * @return the id of the commit BRANCHNAME points at.
+     */
+    private static String readRef(String branchName) {
+        return Utils.readContentsAsString(refFile(branchName));
+    }
+
+    /**
+     * @return the name of the branch HEAD_FILE refers to.
+     */
+    private static String headBranch() {
+        return Utils.readContentsAsString(HEAD_FILE).substring(HEAD_REF_PREFIX.length());
+    }
+
+    /**
+     * @return the head commit of BRANCHNAME, null if there is no such branch.
+     */
+    private Commit branchHead(String branchName) {
+        File ref = refFile(branchName);
+        if (!ref.isFile()) {
+            ref = Utils.join(REMOTE_REFS_DIR, branchName);
+        }
+        return ref.isFile() ? getCommit(Utils.readContentsAsString(ref)) : null;
+    }
+
+    /**
+     * Points BRANCHNAME at COMMIT and records the move in the branch's reflog,
+     * and in the HEAD reflog if it is the current branch.
+     */
+    private void updateRef(String branchName, Commit commit, String reason) {
+        File ref = refFile(branchName);
+        String old = ref.isFile() ? Utils.readContentsAsString(ref) : nullId();
+        if (old.equals(commit.sha1)) {
+            return;
+        }
+        Utils.writeContents(ref, commit.sha1);
+        appendLog(Utils.join(BRANCH_LOG_DIR, branchName), old, commit.sha1, reason);
+        if (branchName.equals(currentBranchName)) {
+            appendLog(HEAD_LOG_FILE, old, commit.sha1, reason);
+        }
+    }
+
+    /**
+     * Appends an entry to the reflog LOG without reading what is already there.
+     */
+    private static void appendLog(File log, String from, String to, String reason) {
+        try {
+            Files.write(log.toPath(),
+                    (from + " " + to + " " + reason + "\n").getBytes(StandardCharsets.UTF_8),
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException ignored) {
+            Main.exit("IOException");
+        }
     }
 
     /**
@@ -416,9 +2131,9 @@ public class Repository implements Serializable {
      * @return the fetched commit, null if no commit with that shortId found.
      */
     private Commit getCommitByShortId(String shortId) {
-        for (Map.Entry<String, Commit> entry : commits.entrySet()) {
-            if (entry.getKey().startsWith(shortId)) {
-                return entry.getValue();
+        for (String id : Utils.plainFilenamesIn(COMMIT_DIR)) {
+            if (id.startsWith(shortId)) {
+                return getCommit(id);
             }
         }
         return null;
@@ -428,15 +2143,20 @@ public class Repository implements Serializable {
         if (branchName.equals(currentBranchName)) {
             Main.exit("No need to checkout the current branch.");
         }
-        Commit branchHead = branches.get(branchName);
+        Commit branchHead = refFile(branchName).isFile() ? branchHead(branchName) : null;
         if (branchHead == null) {
             Main.exit("No such branch exists.");
             return;
         }
-        Repository.copyFile(HEAD_LOG_FILE, Utils.join(BRANCH_LOG_DIR, currentBranchName));
+        if (checkedOutElsewhere(branchName)) {
+            Main.exit("That branch is checked out in another working tree.");
+        }
+        String previousBranchName = currentBranchName;
+        Commit previousHead = _head;
         currentBranchName = branchName;
-        Repository.copyFile(Utils.join(BRANCH_LOG_DIR, currentBranchName), HEAD_LOG_FILE);
         reset(branchHead);
+        appendLog(HEAD_LOG_FILE, previousHead.sha1, _head.sha1,
+                "checkout: moving from " + previousBranchName + " to " + branchName);
     }
 
     public void checkout(String[] args) {
@@ -448,7 +2168,7 @@ public class Repository implements Serializable {
                 if (!args[1].equals("--")) {
                     Main.exit("Incorrect operands.");
                 }
-                commit = branches.get(currentBranchName);
+                commit = _head;
                 fileName = args[2];
             } else if (args.length == 4) {
                 // checkout [commit id] -- [file name]
@@ -472,13 +2192,17 @@ public class Repository implements Serializable {
     }
 
     public void removeBranch(String branchName) {
-        if (!branches.containsKey(branchName)) {
+        if (!refFile(branchName).exists()) {
             Main.exit("A branch with that name does not exist.");
         }
         if (branchName.equals(currentBranchName)) {
             Main.exit("Cannot remove the current branch.");
         }
-        branches.remove(branchName);
+        if (checkedOutElsewhere(branchName)) {
+            Main.exit("That branch is checked out in another working tree.");
+        }
+        refFile(branchName).delete();
+        Utils.join(BRANCH_LOG_DIR, branchName).delete();
     }
 
     /**
@@ -511,26 +2235,7 @@ public class Repository implements Serializable {
         commit.restore();
         stage.clear();
         _head = commit;
-        branches.put(currentBranchName, _head);
-    }
-
-    private void raiseConflict(File f, Commit merged) {
-        File currentVersion = null;
-        File branchVersion = null;
-        if (_head.content.containsKey(f)) {
-            currentVersion = _head.content.get(f).underlying;
-        }
-        if (merged.content.containsKey(f)) {
-            branchVersion = merged.content.get(f).underlying;
-        }
-        StringBuilder sb = new StringBuilder();
-        sb.append("<<<<<<< HEAD\n");
-        sb.append(currentVersion == null ? "" : Utils.readContentsAsString(currentVersion));
-        sb.append("=======\n");
-        sb.append(branchVersion == null ? "" : Utils.readContentsAsString(branchVersion));
-        sb.append(">>>>>>>\n");
-        Utils.writeContents(f, sb.toString());
-        add(f.getName());
+        updateRef(currentBranchName, _head, "reset: moving to " + _head.sha1);
     }
 
     private boolean mightOverwriteUntracked(Commit branchHead) {
@@ -538,25 +2243,64 @@ public class Repository implements Serializable {
         List<File> untracked = untrackedFiles(allFiles);
         for (File file : untracked) {
             if (!_head.content.containsKey(file) && branchHead.content.containsKey(file)
-                    && !sha1OfFile(file).equals(branchHead.content.get(file).sha1)) {
+                    && Sparse.includes(file) && !sha1OfFile(file).equals(branchHead.content.get(file).sha1())) {
                 return true;
             }
         }
         return false;
     }
 
+    /**
+     * Hashes the path of FILE relative to the working directory and its
+     * contents, streaming the contents so that large files are never held in
+     * memory at once. Using the relative path keeps blob ids the same in
+     * every copy of a repository. Versions before fetch and push hashed the
+     * absolute path instead, so files committed with them have other ids
+     * and show as modified until they are committed again.
+     */
     public static String sha1OfFile(File file) {
-        return Utils.sha1(file.getPath(), Utils.readContents(file));
+        return sha1OfFile(CWD.toPath().relativize(file.getAbsoluteFile().toPath()).toString(),
+                file);
+    }
+
+    /**
+     * As above, hashing PATH followed by the contents of the file CONTENTS,
+     * which may be stored elsewhere.
+     */
+    static String sha1OfFile(String path, File contents) {
+        try (InputStream in = new FileInputStream(contents)) {
+            MessageDigest md = HashAlgorithm.current().newDigest();
+            md.update(path.getBytes(StandardCharsets.UTF_8));
+            byte[] buf = new byte[1 << 16];
+            for (int n = in.read(buf); n > 0; n = in.read(buf)) {
+                md.update(buf, 0, n);
+            }
+            return HashAlgorithm.hex(md.digest());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
     }
 
-    public void merge(String branchName) {
+    /**
+     * Merges the given branch into the current one. With --no-checkout the
+     * merge commit is made from objects alone and the working directory is
+     * left as it is; a merge that would conflict is then not committed.
+     *
+     * @param args the arguments passed to the merge command.
+     */
+    public void merge(String[] args) {
+        boolean checkout = !args[1].equals("--no-checkout");
+        if (args.length != (checkout ? 2 : 3)) {
+            Main.exit("Incorrect operands.");
+        }
+        String branchName = args[args.length - 1];
         if (branchName.equals(currentBranchName)) {
             Main.exit("Cannot merge a branch with itself.");
         }
         if (!stage.isEmpty()) {
             Main.exit("You have uncommitted changes.");
         }
-        Commit branchHead = branches.get(branchName);
+        Commit branchHead = branchHead(branchName);
         if (branchHead == null) {
             Main.exit("A branch with that name does not exist.");
             return;
@@ -565,60 +2309,85 @@ public class Repository implements Serializable {
         if (splitPoint.equals(branchHead)) {
             Main.exit("Given branch is an ancestor of the current branch.");
         }
-        if (mightOverwriteUntracked(branchHead)) {
+        if (checkout && mightOverwriteUntracked(branchHead)) {
             Main.exit("There is an untracked file in the way; delete it, "
                     + "or add and commit it first.");
         }
         if (splitPoint.equals(_head)) {
-            reset(branchHead);
+            if (checkout) {
+                reset(branchHead);
+            } else {
+                _head = branchHead;
+                updateRef(currentBranchName, _head, "merge " + branchName + ": Fast-forward");
+            }
             System.out.println("Current branch fast-forwarded.");
             return;
         }
-        boolean noConflict = true;
-        for (Map.Entry<File, Blob> entry : branchHead.content.entrySet()) {
-            File f = entry.getKey();
-            Blob b = entry.getValue();
-            File branchVersion = b.underlying;
-            if (!splitPoint.tracks(f)) {
-                if (!_head.tracks(f)) {
-                    b.checkout();
-                    add(f.getName());
-                } else if (!_head.hasBlob(b)) {
-                    raiseConflict(f, branchHead);
-                    noConflict = false;
-                }
-            } else {
-                // the version in the given branch is modified
-                if (!splitPoint.hasBlob(b)) {
-                    // current branch does not track the file
-                    if (!_head.tracks(f)
-                            // or the file is tracked and modified in current branch
-                            // but different from the given one.
-                            || (!splitPoint.hasIdenticalFile(f) && !_head.hasBlob(b))) {
-                        raiseConflict(f, branchHead);
-                        noConflict = false;
-                    } else {
-                        b.checkout();
-                        add(f.getName());
-                    }
-                }
-            }
+        MergeEngine engine = new MergeEngine(splitPoint.content, _head.content, branchHead.content);
+        applyMerge(engine, "Merged " + branchName + " into " + currentBranchName + ".",
+                new Commit[]{_head, branchHead}, checkout);
+    }
+
+    /**
+     * Applies the changes the given commit made to its first parent on top
+     * of the head commit, as a new commit with the same message. Accepts
+     * --no-checkout as for merge.
+     *
+     * @param args the arguments passed to the cherry-pick command.
+     */
+    public void cherryPick(String[] args) {
+        boolean checkout = !args[1].equals("--no-checkout");
+        if (args.length != (checkout ? 2 : 3)) {
+            Main.exit("Incorrect operands.");
         }
-        for (Map.Entry<File, Blob> entry : _head.content.entrySet()) {
-            File f = entry.getKey();
+        if (!stage.isEmpty()) {
+            Main.exit("You have uncommitted changes.");
+        }
+        Commit picked = getCommitByShortId(args[args.length - 1]);
+        if (picked == null) {
+            Main.exit("No commit with that id exists.");
+            return;
+        }
+        if (checkout && mightOverwriteUntracked(picked)) {
+            Main.exit("There is an untracked file in the way; delete it, "
+                    + "or add and commit it first.");
+        }
+        Tree base = picked.parents.length == 0
+                ? new Tree() : getCommit(picked.parents[0]).content;
+        MergeEngine engine = new MergeEngine(base, _head.content, picked.content);
+        applyMerge(engine, picked.message, new Commit[]{_head}, checkout);
+    }
+
+    /**
+     * Commits the result of ENGINE with message MSG and PARENTS, staging
+     * only the paths it changed. If CHECKOUT, those paths are then written
+     * to or deleted from the working directory; otherwise a conflicting
+     * result is reported and dropped.
+     */
+    private void applyMerge(MergeEngine engine, String msg, Commit[] parents, boolean checkout) {
+        if (!checkout && !engine.isClean()) {
+            Main.exit("Encountered a merge conflict.");
+        }
+        Map<File, Blob> result = engine.result();
+        for (Map.Entry<File, Blob> entry : result.entrySet()) {
             Blob b = entry.getValue();
-            if (splitPoint.tracks(f) && !branchHead.tracks(f)) {
-                if (!splitPoint.hasIdenticalFile(f)) {
-                    raiseConflict(f, branchHead);
-                    noConflict = false;
+            stage.put(entry.getKey(), b == null ? null : StageObject.of(b));
+        }
+        commit(msg, parents);
+        if (checkout) {
+            result.keySet().removeIf(f -> !Sparse.includes(f));
+            List<Blob> toWrite = new ArrayList<>(result.values());
+            toWrite.removeIf(Objects::isNull);
+            fetchMissingBlobs(toWrite);
+            for (Map.Entry<File, Blob> entry : result.entrySet()) {
+                if (entry.getValue() == null) {
+                    Utils.restrictedDelete(entry.getKey());
                 } else {
-                    rm(f);
+                    entry.getValue().checkout();
                 }
             }
         }
-        commit("Merged " + branchName + " into " + currentBranchName + ".",
-                new Commit[]{_head, branchHead});
-        if (!noConflict) {
+        if (!engine.isClean()) {
             System.out.println("Encountered a merge conflict.");
         }
     }
@@ -0,0 +1,86 @@
+package gitlet;
+
+import java.io.File;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Sparse checkout settings of a working tree: glob patterns, one per line in
+ * .gitlet/sparse-checkout, selecting which tracked files are written to the
+ * working directory and inspected by status. Without that file every file
+ * is included. Commits always record every tracked file.
+ *
+ * @author StrangeMP
+ */
+class Sparse {
+    private static final File PATTERNS_FILE = Utils.join(Repository.GITLET_DIR, "sparse-checkout");
+    /** The compiled patterns, empty if disabled, null until first needed. */
+    private static List<PathMatcher> matchers;
+    private static boolean enabled;
+
+    /**
+     * @return the patterns in effect, null if sparse checkout is disabled.
+     */
+    static List<String> patterns() {
+        if (!PATTERNS_FILE.isFile()) {
+            return null;
+        }
+        List<String> patterns = new ArrayList<>();
+        for (String line : Utils.readContentsAsString(PATTERNS_FILE).split("\n")) {
+            if (!line.isBlank()) {
+                patterns.add(line.trim());
+            }
+        }
+        return patterns;
+    }
+
+    /**
+     * Replaces the patterns with PATTERNS, or disables sparse checkout if
+     * PATTERNS is null.
+     */
+    static void set(List<String> patterns) {
+        if (patterns == null) {
+            PATTERNS_FILE.delete();
+        } else {
+            Utils.writeContents(PATTERNS_FILE, String.join("\n", patterns) + "\n");
+        }
+        matchers = null;
+    }
+
+    /**
+     * @return true if F is to be present in the working directory.
+     */
+    static boolean includes(File f) {
+        if (matchers == null) {
+            List<String> patterns = patterns();
+            enabled = patterns != null;
+            matchers = new ArrayList<>();
+            if (enabled) {
+                for (String pattern : patterns) {
+                    matchers.add(FileSystems.getDefault().getPathMatcher("glob:" + pattern));
+                }
+            }
+        }
+        if (!enabled) {
+            return true;
+        }
+        Path name = Path.of(f.getName());
+        for (PathMatcher matcher : matchers) {
+            if (matcher.matches(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the patterns given to sparse-checkout set in ARGS.
+     */
+    static List<String> parse(String[] args) {
+        return Arrays.asList(args).subList(2, args.length);
+    }
+}
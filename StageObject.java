@@ -4,20 +4,17 @@ import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
 import java.nio.file.Files;
-import java.util.List;
 
 public class StageObject implements Serializable {
-    File file;
     Blob blob;
     boolean newBlob = false;
 
-    private StageObject(File f, Blob b) {
-        file = f;
+    private StageObject(Blob b) {
         blob = b;
     }
 
-    private StageObject(File f, Blob b, Boolean nb) {
-        this(f, b);
+    private StageObject(Blob b, Boolean nb) {
+        this(b);
         newBlob = nb;
     }
 
@@ -26,35 +23,52 @@ public class StageObject implements Serializable {
      * @return a StageObject tracking the staged file, null if no need to stage.
      */
     static StageObject of(File f) {
-        List<Blob> blob = Repository.getBlobs().get(f);
         String sha1 = Repository.sha1OfFile(f);
 
-        // completely new file
-        if (blob == null) {
-            return new StageObject(f, new Blob(f), true);
-        }
-
         // check if the staging file is identical with the one in _head
         Blob relativeBlob = Repository.getHead().content.get(f);
-        if (relativeBlob != null && relativeBlob.sha1.equals(sha1)) {
+        if (relativeBlob != null && relativeBlob.sha1().equals(sha1)) {
             return null;
         }
 
-        // check if there is an existing version identical to the staging file
-        for (Blob b : blob) {
-            if (b.sha1.equals(sha1)) {
-                return new StageObject(f, b);
-            }
+        // check if there is a loaded version identical to the staging file
+        Blob known = Repository.BLOB_CACHE.get(sha1);
+        if (known != null) {
+            return new StageObject(known);
         }
 
-        // file edited
-        return new StageObject(f, new Blob(f), true);
+        // an object already in the store may be shared, so it is only
+        // deleted on unstaging if written now
+        boolean stored = Utils.join(Repository.OBJECT_DIR, sha1).exists();
+        return new StageObject(new Blob(f), !stored);
+    }
+
+    /**
+     * @param f File being staged.
+     * @param sha1 id of the version of F being staged, already in the object store.
+     * @param written true if the object was just written for this staging.
+     * @return a StageObject tracking the staged version.
+     */
+    static StageObject of(File f, String sha1, boolean written) {
+        Blob known = Repository.BLOB_CACHE.get(sha1);
+        if (known != null) {
+            return new StageObject(known, written);
+        }
+        return new StageObject(new Blob(f, sha1), written);
+    }
+
+    /**
+     * @param b Blob already holding the new version of its file.
+     * @return a StageObject staging B without reading the working file.
+     */
+    static StageObject of(Blob b) {
+        return new StageObject(b);
     }
 
     public void clear() {
         if (newBlob) {
             try {
-                Files.delete(blob.underlying.toPath());
+                Files.delete(blob.underlying().toPath());
             } catch (IOException ignored) {
                 System.err.println("IOException");
             }
@@ -0,0 +1,242 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Stores the contents of many files as blob objects in three overlapping
+ * stages: reader threads read each file once, hasher threads compute blob
+ * ids from the bytes read, and a writer thread stores objects not yet in the
+ * store. Stages are joined by bounded queues, so readers block rather than
+ * run ahead of the disk when the writer falls behind. If any thread fails,
+ * the others stop at their next queue operation.
+ * Files over MAX_BUFFERED_FILE are not pipelined: the reader that takes one
+ * reads, hashes and stores it alone in a single pass, so that it is never
+ * held in memory. Such files only overlap with the files other readers are
+ * working on at the time.
+ *
+ * @author StrangeMP
+ */
+class StagePipeline {
+    /** Files larger than this bypass the hashers and writer, see the class comment. */
+    private static final long MAX_BUFFERED_FILE = 1 << 20;
+    private static final int QUEUE_CAPACITY = 64;
+    /** Milliseconds a thread waits on a queue between checks for a failure. */
+    private static final long POLL_MILLIS = 100;
+    private static final int READERS = 4;
+    private static final int HASHERS = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+
+    /** A file passing through the pipeline. */
+    static class Item {
+        final File file;
+        byte[] contents;
+        String sha1;
+        /** True if the object for this file was written by the pipeline. */
+        boolean written;
+
+        Item(File file) {
+            this.file = file;
+        }
+    }
+
+    private static final Item END = new Item(null);
+
+    private final List<File> files;
+    private final AtomicInteger next = new AtomicInteger();
+    private final BlockingQueue<Item> toHash = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final BlockingQueue<Item> toWrite = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final ConcurrentLinkedQueue<Item> done = new ConcurrentLinkedQueue<>();
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    private StagePipeline(List<File> files) {
+        this.files = files;
+    }
+
+    /**
+     * Stores the contents of FILES in the object store.
+     *
+     * @return an item with the blob id of each file, in no particular order.
+     */
+    static List<Item> run(List<File> files) {
+        return new StagePipeline(files).run();
+    }
+
+    private List<Item> run() {
+        List<Thread> readers = start(READERS, this::read);
+        List<Thread> hashers = start(HASHERS, this::hash);
+        List<Thread> writers = start(1, this::write);
+        finish(readers, toHash, hashers.size());
+        finish(hashers, toWrite, writers.size());
+        finish(writers, null, 0);
+        if (failure.get() != null) {
+            throw new IllegalArgumentException(failure.get().getMessage());
+        }
+        return new ArrayList<>(done);
+    }
+
+    /**
+     * @return COUNT started threads running STAGE, each recording in failure
+     * whatever it throws.
+     */
+    private List<Thread> start(int count, Runnable stage) {
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Thread t = new Thread(() -> {
+                try {
+                    stage.run();
+                } catch (RuntimeException | Error excp) {
+                    failure.compareAndSet(null, excp);
+                }
+            });
+            t.setDaemon(true);
+            t.start();
+            threads.add(t);
+        }
+        return threads;
+    }
+
+    /**
+     * Waits for THREADS to end, then tells each of the CONSUMERS of their
+     * output queue NEXT that no more items will come.
+     */
+    private void finish(List<Thread> threads, BlockingQueue<Item> next, int consumers) {
+        try {
+            for (Thread t : threads) {
+                t.join();
+            }
+            for (int i = 0; i < consumers; i++) {
+                if (!put(next, END)) {
+                    break;
+                }
+            }
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    private void read() {
+        for (int i = next.getAndIncrement(); i < files.size(); i = next.getAndIncrement()) {
+            Item item = new Item(files.get(i));
+            try {
+                if (item.file.length() > MAX_BUFFERED_FILE) {
+                    store(item);
+                } else {
+                    item.contents = Files.readAllBytes(item.file.toPath());
+                }
+            } catch (IOException excp) {
+                failure.compareAndSet(null, excp);
+                return;
+            }
+            if (!put(toHash, item)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Copies the file of ITEM to a temporary file in the object store,
+     * hashing it on the way, and renames the copy to the object of the id
+     * found unless that object exists already. The file is read only once,
+     * so the id always matches the contents stored.
+     */
+    private static void store(Item item) throws IOException {
+        MessageDigest md = HashAlgorithm.current().newDigest();
+        Path relative = Repository.CWD.toPath().relativize(item.file.getAbsoluteFile().toPath());
+        md.update(relative.toString().getBytes(StandardCharsets.UTF_8));
+        Path tmp = Files.createTempFile(Repository.OBJECT_DIR.toPath(), "stage", ".tmp");
+        try {
+            try (InputStream in = new DigestInputStream(Files.newInputStream(item.file.toPath()), md)) {
+                Files.copy(in, tmp, StandardCopyOption.REPLACE_EXISTING);
+            }
+            item.sha1 = HashAlgorithm.hex(md.digest());
+            File dest = Utils.join(Repository.OBJECT_DIR, item.sha1);
+            if (!dest.exists()) {
+                Files.move(tmp, dest.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                item.written = true;
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private void hash() {
+        for (Item item = take(toHash); item != END; item = take(toHash)) {
+            if (item.sha1 == null) {
+                item.sha1 = Blob.idOf(item.file, item.contents);
+            }
+            if (!put(toWrite, item)) {
+                return;
+            }
+        }
+    }
+
+    private void write() {
+        for (Item item = take(toWrite); item != END; item = take(toWrite)) {
+            File dest = Utils.join(Repository.OBJECT_DIR, item.sha1);
+            if (item.contents != null && !dest.exists()) {
+                File tmp = new File(dest.getPath() + ".tmp");
+                try {
+                    Files.write(tmp.toPath(), item.contents);
+                    Files.move(tmp.toPath(), dest.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                    item.written = true;
+                } catch (IOException excp) {
+                    failure.compareAndSet(null, excp);
+                }
+            }
+            item.contents = null;
+            done.add(item);
+        }
+    }
+
+    /**
+     * Adds ITEM to QUEUE, waiting for room unless a thread has failed.
+     *
+     * @return false if ITEM was not added because of a failure.
+     */
+    private boolean put(BlockingQueue<Item> queue, Item item) {
+        try {
+            while (!queue.offer(item, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                if (failure.get() != null) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * @return the next item of QUEUE, waiting for one to arrive, or END if
+     * a thread has failed.
+     */
+    private Item take(BlockingQueue<Item> queue) {
+        try {
+            Item item = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+            while (item == null && failure.get() == null) {
+                item = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+            }
+            return item == null ? END : item;
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            return END;
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package gitlet;
+
+import java.io.File;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * The files tracked by a commit, as parallel arrays of path indices into the
+ * PathTable, kept sorted, and blobs. An entry costs two array slots rather
+ * than a hash map node, and lookups are binary searches on an int array.
+ *
+ * @author StrangeMP
+ */
+class Tree extends AbstractMap<File, Blob> {
+    private int[] paths;
+    private Blob[] blobs;
+    private int size;
+
+    Tree() {
+        paths = new int[0];
+        blobs = new Blob[0];
+    }
+
+    /**
+     * @param other the tree to copy.
+     */
+    Tree(Tree other) {
+        paths = Arrays.copyOf(other.paths, other.size);
+        blobs = Arrays.copyOf(other.blobs, other.size);
+        size = other.size;
+    }
+
+    /**
+     * @return a tree holding BLOBS, each under the file it tracks.
+     */
+    static Tree of(Blob[] blobs) {
+        Tree tree = new Tree();
+        tree.blobs = blobs.clone();
+        Arrays.sort(tree.blobs, (x, y) -> Integer.compare(x.path, y.path));
+        tree.paths = new int[blobs.length];
+        for (int i = 0; i < blobs.length; i++) {
+            tree.paths[i] = tree.blobs[i].path;
+        }
+        tree.size = blobs.length;
+        return tree;
+    }
+
+    /**
+     * Receives a path of a three-way walk together with its blob in each
+     * tree, null where the path is not tracked.
+     */
+    interface Visitor {
+        void visit(File path, Blob base, Blob ours, Blob theirs);
+    }
+
+    /**
+     * Visits each path tracked by any of BASE, OURS and THEIRS once, in path
+     * index order, advancing through the three sorted path arrays together.
+     */
+    static void walk(Tree base, Tree ours, Tree theirs, Visitor visitor) {
+        int i = 0;
+        int j = 0;
+        int k = 0;
+        while (i < base.size || j < ours.size || k < theirs.size) {
+            int path = Math.min(base.pathAt(i), Math.min(ours.pathAt(j), theirs.pathAt(k)));
+            Blob o = base.pathAt(i) == path ? base.blobs[i++] : null;
+            Blob a = ours.pathAt(j) == path ? ours.blobs[j++] : null;
+            Blob b = theirs.pathAt(k) == path ? theirs.blobs[k++] : null;
+            visitor.visit(PathTable.file(path), o, a, b);
+        }
+    }
+
+    private int pathAt(int i) {
+        return i < size ? paths[i] : Integer.MAX_VALUE;
+    }
+
+    private int indexOf(Object key) {
+        if (!(key instanceof File)) {
+            return -1;
+        }
+        int path = PathTable.lookup((File) key);
+        return path < 0 ? -1 : Arrays.binarySearch(paths, 0, size, path);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return indexOf(key) >= 0;
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        for (int i = 0; i < size; i++) {
+            if (blobs[i].equals(value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public Blob get(Object key) {
+        int i = indexOf(key);
+        return i < 0 ? null : blobs[i];
+    }
+
+    @Override
+    public Blob put(File key, Blob value) {
+        int path = PathTable.intern(key);
+        int i = Arrays.binarySearch(paths, 0, size, path);
+        if (i >= 0) {
+            Blob old = blobs[i];
+            blobs[i] = value;
+            return old;
+        }
+        i = -i - 1;
+        if (size == paths.length) {
+            int capacity = Math.max(8, size * 2);
+            paths = Arrays.copyOf(paths, capacity);
+            blobs = Arrays.copyOf(blobs, capacity);
+        }
+        System.arraycopy(paths, i, paths, i + 1, size - i);
+        System.arraycopy(blobs, i, blobs, i + 1, size - i);
+        paths[i] = path;
+        blobs[i] = value;
+        size++;
+        return null;
+    }
+
+    @Override
+    public Blob remove(Object key) {
+        int i = indexOf(key);
+        if (i < 0) {
+            return null;
+        }
+        Blob old = blobs[i];
+        removeAt(i);
+        return old;
+    }
+
+    private void removeAt(int i) {
+        System.arraycopy(paths, i + 1, paths, i, size - i - 1);
+        System.arraycopy(blobs, i + 1, blobs, i, size - i - 1);
+        size--;
+        blobs[size] = null;
+    }
+
+    @Override
+    public Set<Map.Entry<File, Blob>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public int size() {
+                return size;
+            }
+
+            @Override
+            public Iterator<Map.Entry<File, Blob>> iterator() {
+                return new Iterator<>() {
+                    private int next = 0;
+                    private int last = -1;
+
+                    @Override
+                    public boolean hasNext() {
+                        return next < size;
+                    }
+
+                    @Override
+                    public Map.Entry<File, Blob> next() {
+                        if (next >= size) {
+                            throw new NoSuchElementException();
+                        }
+                        int i = next++;
+                        last = i;
+                        return new SimpleImmutableEntry<>(PathTable.file(paths[i]), blobs[i]);
+                    }
+
+                    @Override
+                    public void remove() {
+                        if (last < 0) {
+                            throw new IllegalStateException();
+                        }
+                        removeAt(last);
+                        next = last;
+                        last = -1;
+                    }
+                };
+            }
+        };
+    }
+}